@@ -50,6 +50,11 @@ public class ModMenuConfigEntry implements ModMenuApi {
                 currConfig.indirectLoadingRadiusCap,
                 1, 20
             ).setDefaultValue(8).build();
+            IntegerSliderEntry entryChunkPacketSendBudget = builder.entryBuilder().startIntSlider(
+                new TranslatableText("imm_ptl.chunk_packet_send_budget"),
+                currConfig.chunkPacketSendBudget,
+                0, 1024
+            ).setDefaultValue(0).build();
             BooleanListEntry entryCompatibilityRenderMode = builder.entryBuilder().startBooleanToggle(
                 new TranslatableText("imm_ptl.compatibility_render_mode"),
                 currConfig.compatibilityRenderMode
@@ -150,6 +155,7 @@ public class ModMenuConfigEntry implements ModMenuApi {
             clientSide.addEntry(entryDimensionRenderRedirect);
             
             serverSide.addEntry(entryIndirectLoadingRadiusCap);
+            serverSide.addEntry(entryChunkPacketSendBudget);
             serverSide.addEntry(entryNetherPortalMode);
             serverSide.addEntry(entryEndPortalMode);
             serverSide.addEntry(entryLongerReachInCreative);
@@ -183,6 +189,7 @@ public class ModMenuConfigEntry implements ModMenuApi {
                     newConfig.enableAlternateDimensions = entryEnableAlternateDimensions.getValue();
                     newConfig.reducedPortalRendering = entryReducedPortalRendering.getValue();
                     newConfig.indirectLoadingRadiusCap = entryIndirectLoadingRadiusCap.getValue();
+                    newConfig.chunkPacketSendBudget = entryChunkPacketSendBudget.getValue();
                     newConfig.dimensionRenderRedirect = MyConfig.listToMap(
                         entryDimensionRenderRedirect.getValue()
                     );
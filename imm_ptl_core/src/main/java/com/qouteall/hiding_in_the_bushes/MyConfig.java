@@ -23,6 +23,7 @@ public class MyConfig {
     public boolean lagAttackProof = true;
     public int portalRenderLimit = 200;
     public int indirectLoadingRadiusCap = 8;
+    public int chunkPacketSendBudget = 0;
     public boolean compatibilityRenderMode = false;
     public boolean doCheckGlError = false;
     public int portalSearchingRange = 128;
@@ -142,6 +143,8 @@ public class MyConfig {
         
         Global.indirectLoadingRadiusCap = indirectLoadingRadiusCap;
         
+        Global.chunkPacketSendBudget = chunkPacketSendBudget;
+        
         Global.netherPortalMode = netherPortalMode;
         Global.endPortalMode = endPortalMode;
     
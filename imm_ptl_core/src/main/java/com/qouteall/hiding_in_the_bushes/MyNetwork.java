@@ -7,7 +7,9 @@ import com.qouteall.immersive_portals.block_manipulation.BlockManipulationServer
 import com.qouteall.immersive_portals.dimension_sync.DimId;
 import com.qouteall.immersive_portals.dimension_sync.DimensionIdRecord;
 import com.qouteall.immersive_portals.dimension_sync.DimensionTypeSync;
+import com.qouteall.immersive_portals.ducks.IECustomPayloadS2CPacket;
 import com.qouteall.immersive_portals.portal.global_portals.GlobalPortalStorage;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import net.fabricmc.fabric.api.network.PacketContext;
 import net.fabricmc.fabric.api.network.ServerSidePacketRegistry;
@@ -22,6 +24,7 @@ import net.minecraft.network.packet.c2s.play.PlayerActionC2SPacket;
 import net.minecraft.network.packet.c2s.play.PlayerInteractBlockC2SPacket;
 import net.minecraft.network.packet.s2c.play.CustomPayloadS2CPacket;
 import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.registry.RegistryKey;
@@ -30,10 +33,13 @@ import org.apache.commons.lang3.Validate;
 
 import java.io.IOException;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public class MyNetwork {
     public static final Identifier id_stcRedirected =
         new Identifier("imm_ptl", "rd");
+    public static final Identifier id_stcRedirectedBatch =
+        new Identifier("imm_ptl", "rd_batch");
     public static final Identifier id_stcDimSync =
         new Identifier("imm_ptl", "dim_sync");
     public static final Identifier id_ctsTeleport =
@@ -46,11 +52,19 @@ public class MyNetwork {
         new Identifier("imm_ptl", "dim_confirm");
     public static final Identifier id_stcUpdateGlobalPortal =
         new Identifier("imm_ptl", "upd_glb_ptl");
+    public static final Identifier id_stcGlobalPortalDelta =
+        new Identifier("imm_ptl", "glb_ptl_delta");
+    public static final Identifier id_ctsRequestGlobalPortalSync =
+        new Identifier("imm_ptl", "req_glb_ptl");
     public static final Identifier id_ctsPlayerAction =
         new Identifier("imm_ptl", "player_action");
     public static final Identifier id_ctsRightClick =
         new Identifier("imm_ptl", "right_click");
     
+    // the client rejects the custom payloads larger than this
+    // see CustomPayloadS2CPacket
+    public static final int maxPayloadSize = 1048576;
+    
     public static void init() {
         ServerSidePacketRegistry.INSTANCE.register(
             id_ctsTeleport,
@@ -64,34 +78,102 @@ public class MyNetwork {
             id_ctsRightClick,
             MyNetwork::processCtsRightClick
         );
+        ServerSidePacketRegistry.INSTANCE.register(
+            id_ctsRequestGlobalPortalSync,
+            MyNetwork::processCtsRequestGlobalPortalSync
+        );
         
     }
     
-    public static Packet createRedirectedMessage(
-        RegistryKey<World> dimension,
-        Packet packet
-    ) {
-        int messageType = 0;
+    private static int getPacketId(Packet packet) {
         try {
-            messageType = NetworkState.PLAY.getPacketId(NetworkSide.CLIENTBOUND, packet);
+            return NetworkState.PLAY.getPacketId(NetworkSide.CLIENTBOUND, packet);
         }
         catch (Exception e) {
             throw new IllegalArgumentException(e);
         }
-        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
-        
-        DimId.writeWorldId(buf, dimension, false);
-        
-        buf.writeInt(messageType);
-        
+    }
+    
+    private static void writePacket(PacketByteBuf buf, Packet packet) {
         try {
             packet.write(buf);
         }
         catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
+    }
+    
+    private static Packet createLazyPayloadPacket(
+        Identifier channel, Consumer<PacketByteBuf> payloadWriter
+    ) {
+        CustomPayloadS2CPacket result = new CustomPayloadS2CPacket(
+            channel, new PacketByteBuf(Unpooled.EMPTY_BUFFER)
+        );
+        ((IECustomPayloadS2CPacket) result).setLazyPayload(payloadWriter);
+        return result;
+    }
+    
+    // the inner packet is written when the redirected packet is being sent
+    // see MixinCustomPayloadS2CPacket
+    public static Packet createRedirectedMessage(
+        RegistryKey<World> dimension,
+        Packet packet
+    ) {
+        int messageType = getPacketId(packet);
+        
+        return createLazyPayloadPacket(id_stcRedirected, buf -> {
+            DimId.writeWorldId(buf, dimension, false);
+            
+            buf.writeInt(messageType);
+            
+            writePacket(buf, packet);
+        });
+    }
+    
+    // appends a packet into the data of a batch message
+    // each packet is prefixed with its id and length
+    public static void writeBatchedPacket(PacketByteBuf buf, Packet packet) {
+        buf.writeVarInt(getPacketId(packet));
+        
+        int lengthIndex = buf.writerIndex();
+        buf.writeInt(0);
+        writePacket(buf, packet);
+        buf.setInt(lengthIndex, buf.writerIndex() - lengthIndex - 4);
+    }
+    
+    // packs multiple packets of the same dimension into one
+    // the packets are already written by writeBatchedPacket
+    // so the size is known before sending
+    // the data is released after being written so the message can only be sent once
+    // a batch of one packet is sent as a normal redirected message
+    public static Packet createRedirectedBatchMessage(
+        RegistryKey<World> dimension,
+        int packetNum,
+        ByteBuf packetData
+    ) {
+        if (packetNum == 1) {
+            return createLazyPayloadPacket(id_stcRedirected, buf -> {
+                DimId.writeWorldId(buf, dimension, false);
+                
+                PacketByteBuf data = new PacketByteBuf(packetData);
+                buf.writeInt(data.readVarInt());
+                // skip the length
+                data.readInt();
+                buf.writeBytes(data);
+                
+                packetData.release();
+            });
+        }
         
-        return new CustomPayloadS2CPacket(id_stcRedirected, buf);
+        return createLazyPayloadPacket(id_stcRedirectedBatch, buf -> {
+            DimId.writeWorldId(buf, dimension, false);
+            
+            buf.writeVarInt(packetNum);
+            
+            buf.writeBytes(packetData);
+            
+            packetData.release();
+        });
     }
     
     public static Packet createDimSync() {
@@ -152,11 +234,25 @@ public class MyNetwork {
         PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
         
         DimId.writeWorldId(buf, storage.world.get().getRegistryKey(), false);
-        buf.writeCompoundTag(storage.toTag(new CompoundTag()));
+        CompoundTag tag = storage.toTag(new CompoundTag());
+        tag.putInt("syncVersion", storage.getSyncVersion());
+        buf.writeCompoundTag(tag);
         
         return new CustomPayloadS2CPacket(id_stcUpdateGlobalPortal, buf);
     }
     
+    public static Packet createGlobalPortalDelta(
+        GlobalPortalStorage storage,
+        CompoundTag delta
+    ) {
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+        
+        DimId.writeWorldId(buf, storage.world.get().getRegistryKey(), false);
+        buf.writeCompoundTag(delta);
+        
+        return new CustomPayloadS2CPacket(id_stcGlobalPortalDelta, buf);
+    }
+    
     private static void processCtsTeleport(PacketContext context, PacketByteBuf buf) {
         RegistryKey<World> dim = DimId.readWorldId(buf, false);
         Vec3d posBefore = new Vec3d(
@@ -212,4 +308,17 @@ public class MyNetwork {
         });
     }
     
+    private static void processCtsRequestGlobalPortalSync(PacketContext context, PacketByteBuf buf) {
+        RegistryKey<World> dim = DimId.readWorldId(buf, false);
+        McHelper.executeOnServerThread(() -> {
+            ServerWorld world = McHelper.getServer().getWorld(dim);
+            if (world == null) {
+                return;
+            }
+            GlobalPortalStorage.get(world).sendFullSync(
+                (ServerPlayerEntity) context.getPlayer()
+            );
+        });
+    }
+    
 }
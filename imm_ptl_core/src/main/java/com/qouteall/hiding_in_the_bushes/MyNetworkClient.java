@@ -46,6 +46,11 @@ public class MyNetworkClient {
             MyNetworkClient::processRedirectedMessage
         );
         
+        ClientSidePacketRegistry.INSTANCE.register(
+            MyNetwork.id_stcRedirectedBatch,
+            MyNetworkClient::processRedirectedBatch
+        );
+        
         ClientSidePacketRegistry.INSTANCE.register(
             MyNetwork.id_stcDimSync,
             MyNetworkClient::processDimSync
@@ -66,6 +71,11 @@ public class MyNetworkClient {
             MyNetworkClient::processGlobalPortalUpdate
         );
         
+        ClientSidePacketRegistry.INSTANCE.register(
+            MyNetwork.id_stcGlobalPortalDelta,
+            MyNetworkClient::processGlobalPortalDelta
+        );
+        
     }
     
     private static void processStcSpawnEntity(PacketContext context, PacketByteBuf buf) {
@@ -150,6 +160,29 @@ public class MyNetworkClient {
         CommonNetwork.processRedirectedPacket(dimension, packet);
     }
     
+    public static void processRedirectedBatch(
+        PacketContext context,
+        PacketByteBuf buf
+    ) {
+        RegistryKey<World> dimension = DimId.readWorldId(buf, true);
+        int packetNum = buf.readVarInt();
+        for (int i = 0; i < packetNum; i++) {
+            int messageType = buf.readVarInt();
+            int length = buf.readInt();
+            PacketByteBuf packetBuf = new PacketByteBuf(buf.readSlice(length));
+            
+            Packet packet = createEmptyPacketByType(messageType);
+            try {
+                packet.read(packetBuf);
+            }
+            catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+            
+            CommonNetwork.processRedirectedPacket(dimension, packet);
+        }
+    }
+    
     public static void processDimSync(
         PacketContext context, PacketByteBuf buf
     ) {
@@ -173,6 +206,14 @@ public class MyNetworkClient {
         });
     }
     
+    private static void processGlobalPortalDelta(PacketContext context, PacketByteBuf buf) {
+        RegistryKey<World> dimension = DimId.readWorldId(buf, true);
+        CompoundTag compoundTag = buf.readCompoundTag();
+        CHelper.executeOnRenderThread(() -> {
+            GlobalPortalStorage.receiveGlobalPortalDelta(dimension, compoundTag);
+        });
+    }
+    
     public static Packet createCtsPlayerAction(
         RegistryKey<World> dimension,
         PlayerActionC2SPacket packet
@@ -219,6 +260,14 @@ public class MyNetworkClient {
         return new CustomPayloadC2SPacket(MyNetwork.id_ctsTeleport, buf);
     }
     
+    public static Packet createCtsRequestGlobalPortalSync(
+        RegistryKey<World> dimension
+    ) {
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+        DimId.writeWorldId(buf, dimension, true);
+        return new CustomPayloadC2SPacket(MyNetwork.id_ctsRequestGlobalPortalSync, buf);
+    }
+    
     private static Packet createEmptyPacketByType(
         int messageType
     ) {
@@ -17,6 +17,9 @@ public class Global {
     
     public static int indirectLoadingRadiusCap = 8;
     
+    // the KB of portal chunk packets that can be sent to a player in one tick, 0 for no limit
+    public static int chunkPacketSendBudget = 0;
+    
     public static boolean lagAttackProof = true;
     
     public static RenderMode renderMode = RenderMode.normal;
@@ -62,6 +65,8 @@ public class Global {
     
     public static boolean serverSmoothLoading = true;
     
+    public static boolean parallelChunkLoaderComputation = false;
+    
     public static boolean reducedPortalRendering = false;
     
     public static boolean useSecondaryEntityVertexConsumer = true;
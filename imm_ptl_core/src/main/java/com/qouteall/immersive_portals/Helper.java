@@ -6,6 +6,7 @@ import com.qouteall.immersive_portals.ducks.IERayTraceContext;
 import com.qouteall.immersive_portals.ducks.IEWorldChunk;
 import com.qouteall.immersive_portals.my_util.IntBox;
 import com.qouteall.immersive_portals.portal.Portal;
+import com.qouteall.immersive_portals.portal.PortalSpatialIndex;
 import it.unimi.dsi.fastutil.objects.ObjectList;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
@@ -676,26 +677,9 @@ public class Helper {
         boolean includeGlobalPortals,
         Predicate<Portal> filter
     ) {
-        // This will be the center of the chunk search, rather than using start or end. This will allow the radius to be
-        // smaller, and as a result, the search to be faster and slightly less inefficient.
-        //
-        // The searching method employed by getNearbyEntities is still not ideal, but it's the best idea I have.
-        Vec3d middle = start.multiply(0.5).add(end.multiply(0.5));
-        
-        // This could result in searching more chunks than necessary, but it always expands to completely cover any
-        // chunks the line from start->end passes through.
-        int chunkRadius = (int) Math.ceil(Math.abs(start.distanceTo(end) / 2) / 16);
-        List<Portal> nearby = getNearbyEntities(world, middle, chunkRadius, Portal.class);
-        
-        if (includeGlobalPortals) {
-            nearby.addAll(McHelper.getGlobalPortals(world));
-        }
-        
-        // Make a list of all portals actually intersecting with this line, and then sort them by the distance from the
-        // start position. Nearest portals first.
         List<Pair<Portal, Vec3d>> hits = new ArrayList<>();
         
-        nearby.forEach(portal -> {
+        for (Portal portal : getPortalCandidatesOnSegment(world, start, end, includeGlobalPortals)) {
             if (filter == null || filter.test(portal)) {
                 Vec3d intersection = portal.rayTrace(start, end);
                 
@@ -703,7 +687,7 @@ public class Helper {
                     hits.add(new Pair<>(portal, intersection));
                 }
             }
-        });
+        }
         
         hits.sort((pair1, pair2) -> {
             Vec3d intersection1 = pair1.getRight();
@@ -717,6 +701,58 @@ public class Helper {
         return hits;
     }
     
+    /**
+     * Returns the nearest portal intersecting the line from start->end, or null.
+     * Uses the per-world portal index so it does not scan the entities in the chunks.
+     */
+    @Nullable
+    public static Pair<Portal, Vec3d> rayTraceNearestPortal(
+        World world,
+        Vec3d start,
+        Vec3d end,
+        boolean includeGlobalPortals,
+        @Nullable Predicate<Portal> filter
+    ) {
+        Portal nearestPortal = null;
+        Vec3d nearestIntersection = null;
+        double nearestDistanceSq = Double.MAX_VALUE;
+        
+        for (Portal portal : getPortalCandidatesOnSegment(world, start, end, includeGlobalPortals)) {
+            if (filter == null || filter.test(portal)) {
+                Vec3d intersection = portal.rayTrace(start, end);
+                
+                if (intersection != null) {
+                    double distanceSq = intersection.squaredDistanceTo(start);
+                    if (distanceSq < nearestDistanceSq) {
+                        nearestPortal = portal;
+                        nearestIntersection = intersection;
+                        nearestDistanceSq = distanceSq;
+                    }
+                }
+            }
+        }
+        
+        if (nearestPortal == null) {
+            return null;
+        }
+        return new Pair<>(nearestPortal, nearestIntersection);
+    }
+    
+    private static List<Portal> getPortalCandidatesOnSegment(
+        World world,
+        Vec3d start,
+        Vec3d end,
+        boolean includeGlobalPortals
+    ) {
+        List<Portal> candidates = PortalSpatialIndex.get(world).getPortalsOnSegment(start, end);
+        
+        if (includeGlobalPortals) {
+            candidates.addAll(McHelper.getGlobalPortals(world));
+        }
+        
+        return candidates;
+    }
+    
     /**
      * @see #withSwitchedContext(World, Supplier)
      */
@@ -797,16 +833,15 @@ public class Helper {
         // First ray trace normally
         BlockHitResult hitResult = world.raycast(context);
         
-        List<Pair<Portal, Vec3d>> rayTracedPortals = withSwitchedContext(
+        Pair<Portal, Vec3d> portalHit = withSwitchedContext(
             world,
-            () -> rayTracePortals(world, start, end, includeGlobalPortals, Portal::isInteractable)
+            () -> rayTraceNearestPortal(world, start, end, includeGlobalPortals, Portal::isInteractable)
         );
         
-        if (rayTracedPortals.isEmpty()) {
+        if (portalHit == null) {
             return new Pair<>(hitResult, portals);
         }
         
-        Pair<Portal, Vec3d> portalHit = rayTracedPortals.get(0);
         Portal portal = portalHit.getLeft();
         Vec3d intersection = portalHit.getRight();
         
@@ -12,6 +12,7 @@ import com.mojang.serialization.JsonOps;
 import com.qouteall.immersive_portals.ducks.IEThreadedAnvilChunkStorage;
 import com.qouteall.immersive_portals.ducks.IEWorldChunk;
 import com.qouteall.immersive_portals.portal.Portal;
+import com.qouteall.immersive_portals.portal.PortalSpatialIndex;
 import com.qouteall.immersive_portals.portal.global_portals.GlobalPortalStorage;
 import com.qouteall.immersive_portals.portal.global_portals.GlobalTrackedPortal;
 import com.qouteall.immersive_portals.render.CrossPortalEntityRenderer;
@@ -501,6 +502,18 @@ public class McHelper {
         }
         
         ChunkPos chunkPos = new ChunkPos(new BlockPos(center));
+        
+        if (Portal.class.isAssignableFrom(entityClass)) {
+            return PortalSpatialIndex.get(world).getPortalsInChunkRange(
+                entityClass,
+                chunkPos.x - radiusChunks,
+                chunkPos.x + radiusChunks,
+                chunkPos.z - radiusChunks,
+                chunkPos.z + radiusChunks,
+                predicate
+            );
+        }
+        
         return findEntities(
             entityClass,
             getChunkAccessor(world),
@@ -521,6 +534,13 @@ public class McHelper {
         double maxEntityRadius,
         Predicate<T> predicate
     ) {
+        // the index uses the full bounding boxes of portals so maxEntityRadius is not needed
+        if (Portal.class.isAssignableFrom(entityClass)) {
+            return PortalSpatialIndex.get(world).getPortalsInBox(
+                entityClass, box, predicate
+            );
+        }
+        
         int xMin = (int) Math.floor(box.minX - maxEntityRadius);
         int yMin = (int) Math.floor(box.minY - maxEntityRadius);
         int zMin = (int) Math.floor(box.minZ - maxEntityRadius);
@@ -7,8 +7,8 @@ import com.qouteall.immersive_portals.chunk_loading.NewChunkTrackingGraph;
 import com.qouteall.immersive_portals.chunk_loading.WorldInfoSender;
 import com.qouteall.immersive_portals.my_util.MyTaskList;
 import com.qouteall.immersive_portals.my_util.Signal;
+import com.qouteall.immersive_portals.portal.PortalSpatialIndex;
 import com.qouteall.immersive_portals.portal.global_portals.GlobalPortalStorage;
-import com.qouteall.immersive_portals.teleportation.CollisionHelper;
 import com.qouteall.immersive_portals.teleportation.ServerTeleportationManager;
 import net.minecraft.block.Block;
 import net.minecraft.item.BlockItem;
@@ -102,7 +102,7 @@ public class ModMain {
         
         EntitySync.init();
         
-        CollisionHelper.init();
+        PortalSpatialIndex.init();
         
     }
     
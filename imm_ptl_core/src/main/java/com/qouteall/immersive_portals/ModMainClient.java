@@ -14,7 +14,6 @@ import com.qouteall.immersive_portals.render.ShaderManager;
 import com.qouteall.immersive_portals.render.context_management.PortalRendering;
 import com.qouteall.immersive_portals.render.lag_spike_fix.GlBufferCache;
 import com.qouteall.immersive_portals.teleportation.ClientTeleportationManager;
-import com.qouteall.immersive_portals.teleportation.CollisionHelper;
 import net.minecraft.client.MinecraftClient;
 
 public class ModMainClient {
@@ -91,7 +90,6 @@ public class ModMainClient {
         
         GlBufferCache.init();
         
-        CollisionHelper.initClient();
         
         PortalPresentation.init();
         
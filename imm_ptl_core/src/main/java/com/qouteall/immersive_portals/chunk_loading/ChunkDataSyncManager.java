@@ -1,12 +1,12 @@
 package com.qouteall.immersive_portals.chunk_loading;
 
 import com.qouteall.hiding_in_the_bushes.MyNetwork;
+import com.qouteall.immersive_portals.Global;
 import com.qouteall.immersive_portals.Helper;
 import com.qouteall.immersive_portals.McHelper;
+import com.qouteall.immersive_portals.ModMain;
 import com.qouteall.immersive_portals.ducks.IEThreadedAnvilChunkStorage;
 import net.minecraft.network.Packet;
-import net.minecraft.network.packet.s2c.play.ChunkDataS2CPacket;
-import net.minecraft.network.packet.s2c.play.LightUpdateS2CPacket;
 import net.minecraft.network.packet.s2c.play.UnloadChunkS2CPacket;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ChunkHolder;
@@ -14,17 +14,33 @@ import net.minecraft.server.world.ServerChunkManager;
 import net.minecraft.server.world.ThreadedAnvilChunkStorage;
 import net.minecraft.util.registry.RegistryKey;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.ChunkSection;
 import net.minecraft.world.chunk.WorldChunk;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Supplier;
 
 //the chunks near player are managed by vanilla
 //we only manage the chunks that's seen by portal and not near player
 //it is not multi-threaded like vanilla
+//when the send budget is set, the chunk packets are queued per player and sent nearest first
 public class ChunkDataSyncManager {
     
     private static final int unloadWaitingTickTime = 20 * 10;
     
+    // the chunks that are watched but not sent yet
+    private final Map<ServerPlayerEntity, Set<DimensionalChunkPos>> sendQueues = new HashMap<>();
+    
+    private final ChunkPacketCache packetCache = new ChunkPacketCache();
+    
+    // the queued chunks grouped by watching distance, reused across ticks
+    private final ArrayList<ArrayList<DimensionalChunkPos>> distanceBuckets = new ArrayList<>();
+    
     public ChunkDataSyncManager() {
         NewChunkTrackingGraph.beginWatchChunkSignal.connectWithWeakRef(
             this, ChunkDataSyncManager::onBeginWatch
@@ -32,12 +48,20 @@ public class ChunkDataSyncManager {
         NewChunkTrackingGraph.endWatchChunkSignal.connectWithWeakRef(
             this, ChunkDataSyncManager::onEndWatch
         );
+        ModMain.postServerTickSignal.connectWithWeakRef(
+            this, ChunkDataSyncManager::tick
+        );
     }
     
     /**
      * {@link ThreadedAnvilChunkStorage#sendChunkDataPackets(ServerPlayerEntity, Packet[], WorldChunk)}
      */
     private void onBeginWatch(ServerPlayerEntity player, DimensionalChunkPos chunkPos) {
+        if (Global.chunkPacketSendBudget > 0) {
+            sendQueues.computeIfAbsent(player, k -> new LinkedHashSet<>()).add(chunkPos);
+            return;
+        }
+        
         McHelper.getServer().getProfiler().push("begin_watch");
         
         IEThreadedAnvilChunkStorage ieStorage = McHelper.getIEStorage(chunkPos.dimension);
@@ -47,7 +71,114 @@ public class ChunkDataSyncManager {
         McHelper.getServer().getProfiler().pop();
     }
     
-    private void sendChunkDataPacketNow(
+    private void tick() {
+        packetCache.purge(McHelper.getServerGameTime());
+        
+        if (sendQueues.isEmpty()) {
+            return;
+        }
+        
+        McHelper.getServer().getProfiler().push("ptl_send_queued_chunks");
+        
+        // the budget is in KB per tick per player
+        long budget = Global.chunkPacketSendBudget * 1024L;
+        
+        sendQueues.entrySet().removeIf(entry -> {
+            ServerPlayerEntity player = entry.getKey();
+            Set<DimensionalChunkPos> queue = entry.getValue();
+            if (player.removed) {
+                return true;
+            }
+            
+            if (budget <= 0) {
+                // the budget was disabled, flush all
+                sendQueuedChunks(player, queue, Long.MAX_VALUE);
+            }
+            else {
+                sendQueuedChunks(player, queue, budget);
+            }
+            return queue.isEmpty();
+        });
+        
+        McHelper.getServer().getProfiler().pop();
+    }
+    
+    private void sendQueuedChunks(
+        ServerPlayerEntity player,
+        Set<DimensionalChunkPos> queue,
+        long budget
+    ) {
+        // the distance may change after the chunk is queued, so order them every tick
+        // the distances are small so bucket them instead of sorting
+        int maxDistance = -1;
+        for (Iterator<DimensionalChunkPos> iterator = queue.iterator(); iterator.hasNext(); ) {
+            DimensionalChunkPos chunkPos = iterator.next();
+            int distance = NewChunkTrackingGraph.getWatchingDistance(
+                player, chunkPos.dimension, chunkPos.x, chunkPos.z
+            );
+            if (distance == -1) {
+                // no longer watched
+                iterator.remove();
+                continue;
+            }
+            while (distanceBuckets.size() <= distance) {
+                distanceBuckets.add(new ArrayList<>());
+            }
+            distanceBuckets.get(distance).add(chunkPos);
+            maxDistance = Math.max(maxDistance, distance);
+        }
+        
+        long sentBytes = 0;
+        for (int distance = 0; distance <= maxDistance; distance++) {
+            ArrayList<DimensionalChunkPos> bucket = distanceBuckets.get(distance);
+            for (DimensionalChunkPos chunkPos : bucket) {
+                if (sentBytes >= budget) {
+                    break;
+                }
+                queue.remove(chunkPos);
+                sentBytes += sendChunkDataPacketNow(
+                    player, chunkPos, McHelper.getIEStorage(chunkPos.dimension)
+                );
+            }
+            bucket.clear();
+        }
+    }
+    
+    private boolean isQueued(ServerPlayerEntity player, DimensionalChunkPos chunkPos) {
+        Set<DimensionalChunkPos> queue = sendQueues.get(player);
+        return queue != null && queue.contains(chunkPos);
+    }
+    
+    // the entities in a chunk that is not sent yet should not be tracked
+    // otherwise the entity spawn packet may arrive before the chunk
+    public boolean isChunkQueued(
+        ServerPlayerEntity player, RegistryKey<World> dimension, int x, int z
+    ) {
+        Set<DimensionalChunkPos> queue = sendQueues.get(player);
+        if (queue == null) {
+            return false;
+        }
+        return queue.contains(new DimensionalChunkPos(dimension, x, z));
+    }
+    
+    // roughly estimate the size of chunk data packet and light packet
+    // it does not need to be accurate for rate limiting
+    private static int estimatePacketSize(WorldChunk chunk) {
+        int size = 4096 + 1024;
+        int nonEmptySectionNum = 0;
+        for (ChunkSection section : chunk.getSectionArray()) {
+            if (!ChunkSection.isEmpty(section)) {
+                size += section.getPacketSize();
+                nonEmptySectionNum++;
+            }
+        }
+        // sky light and block light
+        size += (nonEmptySectionNum + 2) * 2048 * 2;
+        return size;
+    }
+    
+    // returns the estimated size of the sent packets
+    private int sendChunkDataPacketNow(
         ServerPlayerEntity player,
         DimensionalChunkPos chunkPos,
         IEThreadedAnvilChunkStorage ieStorage
@@ -58,31 +189,24 @@ public class ChunkDataSyncManager {
             if (chunk != null) {
                 McHelper.getServer().getProfiler().push("ptl_create_chunk_packet");
                 
-                player.networkHandler.sendPacket(
-                    MyNetwork.createRedirectedMessage(
-                        chunkPos.dimension,
-                        new ChunkDataS2CPacket(((WorldChunk) chunk), 65535)
-                    )
+                ChunkPacketCache.Entry packets = packetCache.getOrCreate(
+                    chunk, ieStorage, McHelper.getServerGameTime()
                 );
                 
-                player.networkHandler.sendPacket(
-                    MyNetwork.createRedirectedMessage(
-                        chunkPos.dimension,
-                        new LightUpdateS2CPacket(
-                            chunkPos.getChunkPos(),
-                            ieStorage.getLightingProvider(),
-                            true
-                        )
-                    )
-                );
+                McHelper.getServer().getProfiler().pop();
+                
+                player.networkHandler.sendPacket(packets.chunkDataPacket);
+                
+                player.networkHandler.sendPacket(packets.lightPacket);
                 
                 ieStorage.updateEntityTrackersAfterSendingChunkPacket(chunk, player);
                 
-                McHelper.getServer().getProfiler().pop();
+                return estimatePacketSize(chunk);
             }
         }
         //if the chunk is not present then the packet will be sent when chunk is ready
         
+        return 0;
     }
     
     /**
@@ -92,36 +216,34 @@ public class ChunkDataSyncManager {
         RegistryKey<World> dimension = chunk.getWorld().getRegistryKey();
         IEThreadedAnvilChunkStorage ieStorage = McHelper.getIEStorage(dimension);
         
-        McHelper.getServer().getProfiler().push("ptl_create_chunk_packet");
-        
-        Supplier<Packet> chunkDataPacketRedirected = Helper.cached(
-            () -> MyNetwork.createRedirectedMessage(
-                dimension,
-                new ChunkDataS2CPacket(((WorldChunk) chunk), 65535)
-            )
-        );
-        
-        Supplier<Packet> lightPacketRedirected = Helper.cached(
-            () -> MyNetwork.createRedirectedMessage(
-                dimension,
-                new LightUpdateS2CPacket(chunk.getPos(), ieStorage.getLightingProvider(), true)
-            )
+        Supplier<ChunkPacketCache.Entry> packets = Helper.cached(
+            () -> packetCache.getOrCreate(chunk, ieStorage, McHelper.getServerGameTime())
         );
         
-        McHelper.getServer().getProfiler().pop();
+        DimensionalChunkPos chunkPos = new DimensionalChunkPos(dimension, chunk.getPos());
         
         NewChunkTrackingGraph.getPlayersViewingChunk(
             dimension, chunk.getPos().x, chunk.getPos().z
         ).forEach(player -> {
-            player.networkHandler.sendPacket(chunkDataPacketRedirected.get());
+            // it will be sent from the queue
+            if (isQueued(player, chunkPos)) {
+                return;
+            }
             
-            player.networkHandler.sendPacket(lightPacketRedirected.get());
+            player.networkHandler.sendPacket(packets.get().chunkDataPacket);
+            
+            player.networkHandler.sendPacket(packets.get().lightPacket);
             
             ieStorage.updateEntityTrackersAfterSendingChunkPacket(chunk, player);
         });
     }
     
     private void onEndWatch(ServerPlayerEntity player, DimensionalChunkPos chunkPos) {
+        Set<DimensionalChunkPos> queue = sendQueues.get(player);
+        if (queue != null && queue.remove(chunkPos)) {
+            // the chunk was not sent, no need to unload it on client
+            return;
+        }
         
         player.networkHandler.sendPacket(
             MyNetwork.createRedirectedMessage(
@@ -142,7 +264,19 @@ public class ChunkDataSyncManager {
                 storage.onPlayerRespawn(oldPlayer);
             });
         
+        sendQueues.remove(oldPlayer);
+        
         NewChunkTrackingGraph.forceRemovePlayer(oldPlayer);
     }
     
+    // called when a block or light in the chunk changes
+    public void onChunkChanged(RegistryKey<World> dimension, long chunkPos) {
+        packetCache.invalidate(dimension, chunkPos);
+    }
+    
+    public void cleanup() {
+        sendQueues.clear();
+        packetCache.clear();
+    }
+    
 }
@@ -0,0 +1,90 @@
+package com.qouteall.immersive_portals.chunk_loading;
+
+import com.qouteall.hiding_in_the_bushes.MyNetwork;
+import com.qouteall.immersive_portals.ducks.IEThreadedAnvilChunkStorage;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.network.Packet;
+import net.minecraft.network.packet.s2c.play.ChunkDataS2CPacket;
+import net.minecraft.network.packet.s2c.play.LightUpdateS2CPacket;
+import net.minecraft.util.registry.RegistryKey;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.WorldChunk;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Caches the redirected chunk data packets and light packets
+// so that a chunk is serialized once for all the players that watch it through portals.
+// The chunk data packet holds its serialized data so it can be written to many players.
+// An entry is invalidated when a block or light in that chunk changes
+public class ChunkPacketCache {
+    // the entries are dropped after some time to limit memory usage
+    private static final int maxCacheTicks = 20 * 5;
+    
+    public static class Entry {
+        public final WorldChunk chunk;
+        public final Packet chunkDataPacket;
+        public final Packet lightPacket;
+        public final long createTime;
+        
+        public Entry(WorldChunk chunk, Packet chunkDataPacket, Packet lightPacket, long createTime) {
+            this.chunk = chunk;
+            this.chunkDataPacket = chunkDataPacket;
+            this.lightPacket = lightPacket;
+            this.createTime = createTime;
+        }
+    }
+    
+    private final Map<RegistryKey<World>, Long2ObjectOpenHashMap<Entry>> data = new HashMap<>();
+    
+    public Entry getOrCreate(
+        WorldChunk chunk,
+        IEThreadedAnvilChunkStorage ieStorage,
+        long currTime
+    ) {
+        RegistryKey<World> dimension = chunk.getWorld().getRegistryKey();
+        long chunkPos = chunk.getPos().toLong();
+        
+        Long2ObjectOpenHashMap<Entry> map = data.computeIfAbsent(
+            dimension, k -> new Long2ObjectOpenHashMap<>()
+        );
+        
+        Entry entry = map.get(chunkPos);
+        // the chunk may be unloaded and loaded again
+        if (entry != null && entry.chunk == chunk) {
+            return entry;
+        }
+        
+        entry = new Entry(
+            chunk,
+            MyNetwork.createRedirectedMessage(
+                dimension,
+                new ChunkDataS2CPacket(chunk, 65535)
+            ),
+            MyNetwork.createRedirectedMessage(
+                dimension,
+                new LightUpdateS2CPacket(chunk.getPos(), ieStorage.getLightingProvider(), true)
+            ),
+            currTime
+        );
+        map.put(chunkPos, entry);
+        return entry;
+    }
+    
+    public void invalidate(RegistryKey<World> dimension, long chunkPos) {
+        Long2ObjectOpenHashMap<Entry> map = data.get(dimension);
+        if (map != null) {
+            map.remove(chunkPos);
+        }
+    }
+    
+    public void purge(long currTime) {
+        data.values().forEach(map -> map.values().removeIf(
+            entry -> currTime - entry.createTime > maxCacheTicks
+        ));
+    }
+    
+    public void clear() {
+        data.clear();
+    }
+}
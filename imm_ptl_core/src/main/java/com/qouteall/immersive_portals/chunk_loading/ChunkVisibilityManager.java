@@ -10,21 +10,27 @@ import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.registry.RegistryKey;
 import net.minecraft.world.World;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Stream;
 
 public class ChunkVisibilityManager {
-    private static final int portalLoadingRange = 48;
+    static final int portalLoadingRange = 48;
     public static final int secondaryPortalLoadingRange = 16;
     
     public static interface ChunkPosConsumer {
         void consume(RegistryKey<World> dimensionType, int x, int z, int distanceToSource);
     }
     
+    public static interface LoadingPortalConsumer {
+        void accept(Portal portal, boolean isDirectLoading);
+    }
+    
     //the players and portals are chunk loaders
     public static class ChunkLoader {
         public DimensionalChunkPos center;
@@ -54,6 +60,48 @@ public class ChunkVisibilityManager {
             }
         }
         
+        // iterate the chunks in this loader's square that are not in the other loader's square
+        // only iterates the difference so the cost does not scale with the whole area
+        public void foreachChunkPosExcluding(ChunkLoader excluded, ChunkPosConsumer func) {
+            if (excluded == null || excluded.center.dimension != center.dimension) {
+                foreachChunkPos(func);
+                return;
+            }
+            
+            int exMinX = excluded.center.x - excluded.radius;
+            int exMaxX = excluded.center.x + excluded.radius;
+            int exMinZ = excluded.center.z - excluded.radius;
+            int exMaxZ = excluded.center.z + excluded.radius;
+            
+            for (int dx = -radius; dx <= radius; dx++) {
+                int x = center.x + dx;
+                boolean rowOverlaps = x >= exMinX && x <= exMaxX;
+                for (int dz = -radius; dz <= radius; dz++) {
+                    int z = center.z + dz;
+                    if (rowOverlaps && z >= exMinZ && z <= exMaxZ) {
+                        // skip the overlapping segment of this row
+                        dz = exMaxZ - center.z;
+                        continue;
+                    }
+                    func.consume(
+                        center.dimension,
+                        x, z,
+                        Math.max(Math.abs(dx), Math.abs(dz))
+                    );
+                }
+            }
+        }
+        
+        public boolean isInRange(RegistryKey<World> dimension, int x, int z) {
+            return center.dimension == dimension &&
+                Math.abs(x - center.x) <= radius &&
+                Math.abs(z - center.z) <= radius;
+        }
+        
+        public int getDistanceToCenter(int x, int z) {
+            return Math.max(Math.abs(x - center.x), Math.abs(z - center.z));
+        }
+        
         public LenientChunkRegion createChunkRegion() {
             ServerWorld world = McHelper.getServer().getWorld(center.dimension);
     
@@ -94,7 +142,7 @@ public class ChunkVisibilityManager {
         );
     }
     
-    private static int getDirectLoadingDistance(int renderDistance, double distanceToPortal) {
+    static int getDirectLoadingDistance(int renderDistance, double distanceToPortal) {
         if (distanceToPortal < 5) {
             return renderDistance;
         }
@@ -104,7 +152,7 @@ public class ChunkVisibilityManager {
         return renderDistance / 3;
     }
     
-    private static int getSmoothedLoadingDistance(
+    static int getSmoothedLoadingDistance(
         Portal portal, ServerPlayerEntity player, int targetLoadingDistance
     ) {
         int cap = Global.indirectLoadingRadiusCap;
@@ -126,39 +174,56 @@ public class ChunkVisibilityManager {
         return Math.min(maxLoadDistance, cappedLoadingDistance);
     }
     
+    // the loading distance before smoothing
+    // these only use the copyable portal state so they can also run off-thread
+    static int getPortalDirectLoadingTarget(
+        int renderDistance, double distanceToPortal, double scaling, double destAreaRadius
+    ) {
+        // load more for up scaling portal
+        if (scaling > 2 && distanceToPortal < 5) {
+            renderDistance = (int) ((destAreaRadius * 1.4) / 16);
+        }
+        
+        return getDirectLoadingDistance(renderDistance, distanceToPortal);
+    }
+    
+    static int getPortalIndirectLoadingTarget(int renderDistance) {
+        return renderDistance / 4;
+    }
+    
+    static DimensionalChunkPos getPortalLoaderCenter(
+        RegistryKey<World> dimensionTo, Vec3d destination
+    ) {
+        return new DimensionalChunkPos(
+            dimensionTo,
+            new ChunkPos(new BlockPos(destination))
+        );
+    }
+    
     private static ChunkLoader portalDirectLoader(
         Portal portal,
         ServerPlayerEntity player
     ) {
-        int renderDistance = McHelper.getRenderDistanceOnServer();
         double distance = portal.getDistanceToNearestPointInPortal(player.getPos());
         
-        // load more for up scaling portal
-        if (portal.scaling > 2 && distance < 5) {
-            renderDistance = (int) ((portal.getDestAreaRadius() * 1.4) / 16);
-        }
-        
         return new ChunkLoader(
-            new DimensionalChunkPos(
-                portal.dimensionTo,
-                new ChunkPos(new BlockPos(portal.destination))
-            ),
+            getPortalLoaderCenter(portal.dimensionTo, portal.destination),
             getSmoothedLoadingDistance(
                 portal, player,
-                getDirectLoadingDistance(renderDistance, distance)
+                getPortalDirectLoadingTarget(
+                    McHelper.getRenderDistanceOnServer(), distance,
+                    portal.scaling, portal.getDestAreaRadius()
+                )
             )
         );
     }
     
     private static ChunkLoader portalIndirectLoader(Portal portal, ServerPlayerEntity player) {
-        int renderDistance = McHelper.getRenderDistanceOnServer();
         return new ChunkLoader(
-            new DimensionalChunkPos(
-                portal.dimensionTo,
-                new ChunkPos(new BlockPos(portal.destination))
-            ),
+            getPortalLoaderCenter(portal.dimensionTo, portal.destination),
             getSmoothedLoadingDistance(
-                portal, player, renderDistance / 4
+                portal, player,
+                getPortalIndirectLoadingTarget(McHelper.getRenderDistanceOnServer())
             )
         );
     }
@@ -234,55 +299,77 @@ public class ChunkVisibilityManager {
         return Streams.concat(
             Stream.of(playerDirectLoader(player)),
             
-            McHelper.getServerEntitiesNearbyWithoutLoadingChunk(
-                player.world,
-                player.getPos(),
+            getPortalLoaders(player),
+            
+            getGlobalPortalLoaders(player)
+        ).distinct();
+    }
+    
+    private static Stream<ChunkLoader> getPortalLoaders(ServerPlayerEntity player) {
+        ArrayList<ChunkLoader> result = new ArrayList<>();
+        foreachLoadingPortal(player, (portal, isDirectLoading) -> result.add(
+            isDirectLoading ?
+                portalDirectLoader(portal, player) :
+                portalIndirectLoader(portal, player)
+        ));
+        return result.stream();
+    }
+    
+    // the portals near the player load the chunks directly
+    // the portals near the destinations of them load the chunks indirectly
+    // runs on server thread
+    static void foreachLoadingPortal(ServerPlayerEntity player, LoadingPortalConsumer func) {
+        List<Portal> nearbyPortals = McHelper.findEntitiesRough(
+            Portal.class,
+            player.world,
+            player.getPos(),
+            (shrinkLoading() ? portalLoadingRange / 2 : portalLoadingRange) / 16,
+            portal -> portal.canBeSpectated(player)
+        );
+        
+        for (Portal portal : nearbyPortals) {
+            func.accept(portal, true);
+            
+            if (shrinkLoading()) {
+                continue;
+            }
+            
+            List<Portal> remotePortals = McHelper.findEntitiesRough(
                 Portal.class,
-                shrinkLoading() ? portalLoadingRange / 2 : portalLoadingRange
-            ).filter(
-                portal -> portal.canBeSpectated(player)
-            ).flatMap(
+                McHelper.getServer().getWorld(portal.dimensionTo),
+                portal.destination,
+                secondaryPortalLoadingRange / 16,
+                remotePortal -> remotePortal.canBeSpectated(player)
+            );
+            for (Portal remotePortal : remotePortals) {
+                func.accept(remotePortal, false);
+            }
+        }
+    }
+    
+    static Stream<ChunkLoader> getGlobalPortalLoaders(ServerPlayerEntity player) {
+        return getGlobalPortals(player.world.getRegistryKey())
+            .flatMap(
                 portal -> Stream.concat(
-                    Stream.of(portalDirectLoader(portal, player)),
+                    Stream.of(globalPortalDirectLoader(
+                        player, portal
+                    )),
                     
                     shrinkLoading() ?
                         Stream.empty() :
-                        McHelper.getServerEntitiesNearbyWithoutLoadingChunk(
-                            McHelper.getServer().getWorld(portal.dimensionTo),
-                            portal.destination,
-                            Portal.class,
-                            secondaryPortalLoadingRange
+                        getGlobalPortals(
+                            portal.dimensionTo
                         ).filter(
-                            remotePortal -> remotePortal.canBeSpectated(player)
+                            remotePortal -> remotePortal.getDistanceToNearestPointInPortal(
+                                portal.transformPoint(player.getPos())
+                            ) < (shrinkLoading() ? portalLoadingRange / 2 : portalLoadingRange)
                         ).map(
-                            remotePortal -> portalIndirectLoader(remotePortal, player)
-                        )
-                )
-            ),
-            
-            getGlobalPortals(player.world.getRegistryKey())
-                .flatMap(
-                    portal -> Stream.concat(
-                        Stream.of(globalPortalDirectLoader(
-                            player, portal
-                        )),
-                        
-                        shrinkLoading() ?
-                            Stream.empty() :
-                            getGlobalPortals(
-                                portal.dimensionTo
-                            ).filter(
-                                remotePortal -> remotePortal.getDistanceToNearestPointInPortal(
-                                    portal.transformPoint(player.getPos())
-                                ) < (shrinkLoading() ? portalLoadingRange / 2 : portalLoadingRange)
-                            ).map(
-                                remotePortal -> globalPortalIndirectLoader(
-                                    player, portal, remotePortal
-                                )
+                            remotePortal -> globalPortalIndirectLoader(
+                                player, portal, remotePortal
                             )
-                    )
+                        )
                 )
-        ).distinct();
+            );
     }
     
     public static boolean shrinkLoading() {
@@ -0,0 +1,291 @@
+package com.qouteall.immersive_portals.chunk_loading;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.util.math.ChunkPos;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Arrays;
+
+// Stores the player watch records of one dimension in primitive arrays
+// A record is identified by its index. The records of the same chunk form a doubly linked list
+// and the records of the same player form another doubly linked list
+// Players are referred by slot index instead of reference
+public class ChunkWatchStorage {
+    public static final int NONE = -1;
+    
+    // the slot occupies the lower 20 bits of record key
+    public static final int maxPlayerSlotNum = 1 << 20;
+    
+    public static interface RecordPredicate {
+        boolean test(int recordIndex);
+    }
+    
+    public static interface RecordConsumer {
+        void accept(int recordIndex);
+    }
+    
+    private long[] chunkPosArr;
+    // NONE for the unused records
+    private int[] playerSlotArr;
+    private long[] lastWatchTimeArr;
+    // distance to source is stored in the higher bits, the lowest bit is direct loading
+    private int[] distanceAndFlagArr;
+    // for the unused records, nextArr forms the free list
+    private int[] nextArr;
+    private int[] prevArr;
+    // the links of the list of records of the same player
+    private int[] playerNextArr;
+    private int[] playerPrevArr;
+    
+    private int freeHead = NONE;
+    private int usedCapacity = 0;
+    private int recordNum = 0;
+    
+    // (chunk pos, player slot) -> record index
+    private final Long2IntOpenHashMap recordIndexMap = new Long2IntOpenHashMap();
+    // chunk pos -> index of the first record of the chunk
+    private final Long2IntOpenHashMap chunkHeadMap = new Long2IntOpenHashMap();
+    // player slot -> index of the first record of the player
+    private final Int2IntOpenHashMap playerHeadMap = new Int2IntOpenHashMap();
+    
+    public ChunkWatchStorage() {
+        this(64);
+    }
+    
+    public ChunkWatchStorage(int initialCapacity) {
+        chunkPosArr = new long[initialCapacity];
+        playerSlotArr = new int[initialCapacity];
+        lastWatchTimeArr = new long[initialCapacity];
+        distanceAndFlagArr = new int[initialCapacity];
+        nextArr = new int[initialCapacity];
+        prevArr = new int[initialCapacity];
+        playerNextArr = new int[initialCapacity];
+        playerPrevArr = new int[initialCapacity];
+        Arrays.fill(playerSlotArr, NONE);
+        
+        recordIndexMap.defaultReturnValue(NONE);
+        chunkHeadMap.defaultReturnValue(NONE);
+        playerHeadMap.defaultReturnValue(NONE);
+    }
+    
+    // The chunk coordinates are within 22 bits because of the world border
+    private static long getRecordKey(long chunkPos, int playerSlot) {
+        long x = ChunkPos.getPackedX(chunkPos) & 0x3FFFFF;
+        long z = ChunkPos.getPackedZ(chunkPos) & 0x3FFFFF;
+        return (x << 42) | (z << 20) | playerSlot;
+    }
+    
+    private static int packDistanceAndFlag(int distanceToSource, boolean isDirectLoading) {
+        return (distanceToSource << 1) | (isDirectLoading ? 1 : 0);
+    }
+    
+    public int find(long chunkPos, int playerSlot) {
+        return recordIndexMap.get(getRecordKey(chunkPos, playerSlot));
+    }
+    
+    public int add(
+        long chunkPos, int playerSlot,
+        long lastWatchTime, int distanceToSource, boolean isDirectLoading
+    ) {
+        Validate.isTrue(playerSlot >= 0 && playerSlot < maxPlayerSlotNum);
+        
+        int index = allocate();
+        
+        chunkPosArr[index] = chunkPos;
+        playerSlotArr[index] = playerSlot;
+        lastWatchTimeArr[index] = lastWatchTime;
+        distanceAndFlagArr[index] = packDistanceAndFlag(distanceToSource, isDirectLoading);
+        
+        int head = chunkHeadMap.get(chunkPos);
+        prevArr[index] = NONE;
+        nextArr[index] = head;
+        if (head != NONE) {
+            prevArr[head] = index;
+        }
+        chunkHeadMap.put(chunkPos, index);
+        
+        int playerHead = playerHeadMap.get(playerSlot);
+        playerPrevArr[index] = NONE;
+        playerNextArr[index] = playerHead;
+        if (playerHead != NONE) {
+            playerPrevArr[playerHead] = index;
+        }
+        playerHeadMap.put(playerSlot, index);
+        
+        recordIndexMap.put(getRecordKey(chunkPos, playerSlot), index);
+        recordNum++;
+        
+        return index;
+    }
+    
+    public void remove(int index) {
+        Validate.isTrue(playerSlotArr[index] != NONE);
+        
+        long chunkPos = chunkPosArr[index];
+        int playerSlot = playerSlotArr[index];
+        recordIndexMap.remove(getRecordKey(chunkPos, playerSlot));
+        
+        int prev = prevArr[index];
+        int next = nextArr[index];
+        if (prev != NONE) {
+            nextArr[prev] = next;
+        }
+        else if (next != NONE) {
+            chunkHeadMap.put(chunkPos, next);
+        }
+        else {
+            chunkHeadMap.remove(chunkPos);
+        }
+        if (next != NONE) {
+            prevArr[next] = prev;
+        }
+        
+        int playerPrev = playerPrevArr[index];
+        int playerNext = playerNextArr[index];
+        if (playerPrev != NONE) {
+            playerNextArr[playerPrev] = playerNext;
+        }
+        else if (playerNext != NONE) {
+            playerHeadMap.put(playerSlot, playerNext);
+        }
+        else {
+            playerHeadMap.remove(playerSlot);
+        }
+        if (playerNext != NONE) {
+            playerPrevArr[playerNext] = playerPrev;
+        }
+        
+        playerSlotArr[index] = NONE;
+        nextArr[index] = freeHead;
+        freeHead = index;
+        recordNum--;
+    }
+    
+    private int allocate() {
+        if (freeHead != NONE) {
+            int index = freeHead;
+            freeHead = nextArr[index];
+            return index;
+        }
+        
+        if (usedCapacity == chunkPosArr.length) {
+            int newCapacity = chunkPosArr.length * 2;
+            chunkPosArr = Arrays.copyOf(chunkPosArr, newCapacity);
+            playerSlotArr = Arrays.copyOf(playerSlotArr, newCapacity);
+            lastWatchTimeArr = Arrays.copyOf(lastWatchTimeArr, newCapacity);
+            distanceAndFlagArr = Arrays.copyOf(distanceAndFlagArr, newCapacity);
+            nextArr = Arrays.copyOf(nextArr, newCapacity);
+            prevArr = Arrays.copyOf(prevArr, newCapacity);
+            playerNextArr = Arrays.copyOf(playerNextArr, newCapacity);
+            playerPrevArr = Arrays.copyOf(playerPrevArr, newCapacity);
+            Arrays.fill(playerSlotArr, usedCapacity, newCapacity, NONE);
+        }
+        
+        int index = usedCapacity;
+        usedCapacity++;
+        return index;
+    }
+    
+    public long getChunkPos(int index) {
+        return chunkPosArr[index];
+    }
+    
+    public int getPlayerSlot(int index) {
+        return playerSlotArr[index];
+    }
+    
+    public long getLastWatchTime(int index) {
+        return lastWatchTimeArr[index];
+    }
+    
+    public void setLastWatchTime(int index, long lastWatchTime) {
+        lastWatchTimeArr[index] = lastWatchTime;
+    }
+    
+    public int getDistanceToSource(int index) {
+        return distanceAndFlagArr[index] >>> 1;
+    }
+    
+    public boolean isDirectLoading(int index) {
+        return (distanceAndFlagArr[index] & 1) != 0;
+    }
+    
+    public void setWatchStatus(int index, int distanceToSource, boolean isDirectLoading) {
+        distanceAndFlagArr[index] = packDistanceAndFlag(distanceToSource, isDirectLoading);
+    }
+    
+    public int getFirstRecordOfChunk(long chunkPos) {
+        return chunkHeadMap.get(chunkPos);
+    }
+    
+    public int getNextRecordOfChunk(int index) {
+        return nextArr[index];
+    }
+    
+    public int getFirstRecordOfPlayer(int playerSlot) {
+        return playerHeadMap.get(playerSlot);
+    }
+    
+    public int getNextRecordOfPlayer(int index) {
+        return playerNextArr[index];
+    }
+    
+    // the records of other players are not visited
+    public void forEachRecordOfPlayer(int playerSlot, RecordConsumer func) {
+        int index = playerHeadMap.get(playerSlot);
+        while (index != NONE) {
+            // the record may be removed by func
+            int next = playerNextArr[index];
+            func.accept(index);
+            index = next;
+        }
+    }
+    
+    public boolean isChunkWatched(long chunkPos) {
+        return chunkHeadMap.containsKey(chunkPos);
+    }
+    
+    public LongSet getWatchedChunks() {
+        return chunkHeadMap.keySet();
+    }
+    
+    public int getChunkNum() {
+        return chunkHeadMap.size();
+    }
+    
+    public int getRecordNum() {
+        return recordNum;
+    }
+    
+    public boolean isEmpty() {
+        return recordNum == 0;
+    }
+    
+    public void removeIf(RecordPredicate predicate) {
+        for (int index = 0; index < usedCapacity; index++) {
+            if (playerSlotArr[index] != NONE && predicate.test(index)) {
+                remove(index);
+            }
+        }
+    }
+    
+    public void forEachRecord(RecordConsumer func) {
+        for (int index = 0; index < usedCapacity; index++) {
+            if (playerSlotArr[index] != NONE) {
+                func.accept(index);
+            }
+        }
+    }
+    
+    public void clear() {
+        Arrays.fill(playerSlotArr, 0, usedCapacity, NONE);
+        usedCapacity = 0;
+        freeHead = NONE;
+        recordNum = 0;
+        recordIndexMap.clear();
+        chunkHeadMap.clear();
+        playerHeadMap.clear();
+    }
+}
@@ -5,21 +5,35 @@ import com.qouteall.immersive_portals.McHelper;
 import com.qouteall.immersive_portals.ModMain;
 import com.qouteall.immersive_portals.ducks.IEEntityTracker;
 import com.qouteall.immersive_portals.ducks.IEThreadedAnvilChunkStorage;
+import com.qouteall.immersive_portals.ducks.IEWorldChunk;
 import com.qouteall.immersive_portals.my_util.LimitedLogger;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.entity.Entity;
 import net.minecraft.network.Packet;
+import net.minecraft.network.PacketByteBuf;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayNetworkHandler;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.server.world.ThreadedAnvilChunkStorage;
-import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.collection.TypeFilterableList;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.registry.RegistryKey;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.WorldChunk;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class EntitySync {
     private static final LimitedLogger limitedLogger = new LimitedLogger(100);
@@ -27,12 +41,51 @@ public class EntitySync {
     @Nullable
     private static RegistryKey<World> forceRedirect = null;
     
+    // when batching, the force redirected packets are gathered per player
+    // and sent as one packet after ticking the entity trackers of a dimension
+    @Nullable
+    private static RegistryKey<World> batchingDimension = null;
+    private static final Map<ServerPlayNetworkHandler, PacketBatch> batchedPackets =
+        new LinkedHashMap<>();
+    
+    // leave some space for the channel, dimension id and packet count
+    private static final int maxBatchDataSize = MyNetwork.maxPayloadSize - 1024;
+    
+    // the packets are serialized when being batched so the payload size is known
+    // the data is pooled and released after being written into the outbound buffer
+    private static class PacketBatch {
+        public final PacketByteBuf data = new PacketByteBuf(PooledByteBufAllocator.DEFAULT.buffer());
+        public int packetNum = 0;
+    }
+    
+    private static final int sectionsPerChunk = 16;
+    
+    private static class PlayerChunk {
+        public final ServerPlayerEntity player;
+        public final long chunkPos;
+        
+        public PlayerChunk(ServerPlayerEntity player, long chunkPos) {
+            this.player = player;
+            this.chunkPos = chunkPos;
+        }
+    }
+    
+    // the entities that moved into another chunk section since last tick
+    private static final Map<RegistryKey<World>, Set<Entity>> dirtyEntities = new HashMap<>();
+    // the entities in these chunks will update their tracking status to the player
+    private static final Map<RegistryKey<World>, List<PlayerChunk>> chunksToRefreshMap =
+        new HashMap<>();
+    
     public static void init() {
         ModMain.postServerTickSignal.connect(EntitySync::tick);
+        NewChunkTrackingGraph.endWatchChunkSignal.connect(EntitySync::onEndWatchChunk);
     }
     
     /**
      * Replace ThreadedAnvilChunkStorage#tickPlayerMovement()
+     * Only the entities that moved into another chunk section are updated for all players.
+     * For the players that moved into another chunk section,
+     * only the entities in their watched chunks are updated.
      */
     private static void tick() {
         MinecraftServer server = McHelper.getServer();
@@ -42,61 +95,142 @@ public class EntitySync {
         List<ServerPlayerEntity> playerList = McHelper.getRawPlayerList();
         
         List<ServerPlayerEntity> dirtyPlayers = new ArrayList<>();
-        
         for (ServerPlayerEntity player : playerList) {
-            ThreadedAnvilChunkStorage storage =
-                ((ServerWorld) player.world).getChunkManager().threadedAnvilChunkStorage;
-            Int2ObjectMap<ThreadedAnvilChunkStorage.EntityTracker> entityTrackerMap =
-                ((IEThreadedAnvilChunkStorage) storage).getEntityTrackerMap();
-            
-            ThreadedAnvilChunkStorage.EntityTracker playerItselfTracker =
-                entityTrackerMap.get(player.getEntityId());
-            if (playerItselfTracker != null) {
-                if (isDirty(playerItselfTracker)) {
-                    dirtyPlayers.add(player);
-                }
-            }
-            else {
-//                limitedLogger.err(
-//                    "Entity tracker abnormal " + player + player.world.getRegistryKey().getValue()
-//                );
+            Set<Entity> dirtyEntitiesOfWorld = dirtyEntities.get(player.world.getRegistryKey());
+            if (dirtyEntitiesOfWorld != null && dirtyEntitiesOfWorld.contains(player)) {
+                dirtyPlayers.add(player);
             }
         }
         
+        NewChunkTrackingGraph.foreachWatchedChunkOfPlayers(
+            dirtyPlayers,
+            EntitySync::addChunkToRefresh
+        );
+        
         server.getWorlds().forEach(world -> {
             ThreadedAnvilChunkStorage storage = world.getChunkManager().threadedAnvilChunkStorage;
             Int2ObjectMap<ThreadedAnvilChunkStorage.EntityTracker> entityTrackerMap =
                 ((IEThreadedAnvilChunkStorage) storage).getEntityTrackerMap();
             
-            withForceRedirect(world.getRegistryKey(), () -> {
+            RegistryKey<World> dimension = world.getRegistryKey();
+            Set<Entity> dirtyEntitiesOfWorld = dirtyEntities.remove(dimension);
+            List<PlayerChunk> chunksToRefresh = chunksToRefreshMap.remove(dimension);
+            
+            withForceRedirectBatched(dimension, () -> {
                 for (ThreadedAnvilChunkStorage.EntityTracker tracker : entityTrackerMap.values()) {
                     ((IEEntityTracker) tracker).tickEntry();
-                    
-                    boolean dirty = isDirty(tracker);
-                    List<ServerPlayerEntity> updatedPlayerList = dirty ? playerList : dirtyPlayers;
-                    
-                    for (ServerPlayerEntity player : updatedPlayerList) {
-                        ((IEEntityTracker) tracker).updateEntityTrackingStatus(player);
-                    }
-                    
-                    if (dirty) {
-                        markUnDirty(tracker);
+                }
+                
+                if (dirtyEntitiesOfWorld != null) {
+                    for (Entity entity : dirtyEntitiesOfWorld) {
+                        ThreadedAnvilChunkStorage.EntityTracker tracker =
+                            entityTrackerMap.get(entity.getEntityId());
+                        if (tracker != null) {
+                            for (ServerPlayerEntity player : playerList) {
+                                ((IEEntityTracker) tracker).updateEntityTrackingStatus(player);
+                            }
+                        }
                     }
                 }
+                
+                if (chunksToRefresh != null) {
+                    refreshChunks(world, entityTrackerMap, chunksToRefresh);
+                }
             });
         });
         
         server.getProfiler().pop();
     }
     
-    private static boolean isDirty(ThreadedAnvilChunkStorage.EntityTracker tracker) {
-        ChunkSectionPos newPos = ChunkSectionPos.from(((IEEntityTracker) tracker).getEntity_());
-        return !((IEEntityTracker) tracker).getLastCameraPosition().equals(newPos);
+    // when a player has many chunks to refresh in a world with few entities,
+    // updating all trackers for that player is cheaper than walking the entity sections
+    private static void refreshChunks(
+        ServerWorld world,
+        Int2ObjectMap<ThreadedAnvilChunkStorage.EntityTracker> entityTrackerMap,
+        List<PlayerChunk> chunksToRefresh
+    ) {
+        Object2IntOpenHashMap<ServerPlayerEntity> chunkNumMap = new Object2IntOpenHashMap<>();
+        for (PlayerChunk playerChunk : chunksToRefresh) {
+            chunkNumMap.addTo(playerChunk.player, 1);
+        }
+        
+        Set<ServerPlayerEntity> fullyRefreshedPlayers = new HashSet<>();
+        for (PlayerChunk playerChunk : chunksToRefresh) {
+            ServerPlayerEntity player = playerChunk.player;
+            if (player.removed) {
+                continue;
+            }
+            
+            int sectionNum = chunkNumMap.getInt(player) * sectionsPerChunk;
+            if (sectionNum > entityTrackerMap.size()) {
+                if (fullyRefreshedPlayers.add(player)) {
+                    for (ThreadedAnvilChunkStorage.EntityTracker tracker : entityTrackerMap.values()) {
+                        ((IEEntityTracker) tracker).updateEntityTrackingStatus(player);
+                    }
+                }
+            }
+            else {
+                refreshEntitiesInChunk(world, entityTrackerMap, playerChunk);
+            }
+        }
+    }
+    
+    private static void refreshEntitiesInChunk(
+        ServerWorld world,
+        Int2ObjectMap<ThreadedAnvilChunkStorage.EntityTracker> entityTrackerMap,
+        PlayerChunk playerChunk
+    ) {
+        if (playerChunk.player.removed) {
+            return;
+        }
+        
+        WorldChunk chunk = McHelper.getServerChunkIfPresent(
+            world,
+            ChunkPos.getPackedX(playerChunk.chunkPos),
+            ChunkPos.getPackedZ(playerChunk.chunkPos)
+        );
+        if (chunk == null) {
+            return;
+        }
+        
+        for (TypeFilterableList<Entity> entitySection : ((IEWorldChunk) chunk).getEntitySections()) {
+            if (entitySection.isEmpty()) {
+                continue;
+            }
+            for (Entity entity : entitySection) {
+                ThreadedAnvilChunkStorage.EntityTracker tracker =
+                    entityTrackerMap.get(entity.getEntityId());
+                if (tracker != null) {
+                    ((IEEntityTracker) tracker).updateEntityTrackingStatus(playerChunk.player);
+                }
+            }
+        }
+    }
+    
+    private static void addChunkToRefresh(
+        ServerPlayerEntity player, RegistryKey<World> dimension, long chunkPos
+    ) {
+        chunksToRefreshMap.computeIfAbsent(dimension, k -> new ArrayList<>())
+            .add(new PlayerChunk(player, chunkPos));
+    }
+    
+    /**
+     * Called when an entity is added into a chunk section
+     * {@link com.qouteall.immersive_portals.mixin.common.MixinWorldChunk}
+     */
+    public static void onEntitySectionChanged(Entity entity) {
+        dirtyEntities.computeIfAbsent(entity.world.getRegistryKey(), k -> new HashSet<>())
+            .add(entity);
+    }
+    
+    // the entities in that chunk should stop being tracked by the player
+    private static void onEndWatchChunk(ServerPlayerEntity player, DimensionalChunkPos chunkPos) {
+        addChunkToRefresh(player, chunkPos.dimension, chunkPos.getChunkPos().toLong());
     }
     
-    private static void markUnDirty(ThreadedAnvilChunkStorage.EntityTracker tracker) {
-        ChunkSectionPos currPos = ChunkSectionPos.from(((IEEntityTracker) tracker).getEntity_());
-        ((IEEntityTracker) tracker).setLastCameraPosition(currPos);
+    public static void cleanup() {
+        dirtyEntities.clear();
+        chunksToRefreshMap.clear();
     }
     
     public static void withForceRedirect(RegistryKey<World> dimension, Runnable func) {
@@ -106,6 +240,133 @@ public class EntitySync {
         forceRedirect = oldForceRedirect;
     }
     
+    private static void withForceRedirectBatched(RegistryKey<World> dimension, Runnable func) {
+        RegistryKey<World> oldBatchingDimension = batchingDimension;
+        batchingDimension = dimension;
+        try {
+            withForceRedirect(dimension, func);
+        }
+        finally {
+            batchingDimension = oldBatchingDimension;
+            flushBatchedPackets(dimension);
+        }
+    }
+    
+    /**
+     * The packets redirected to that dimension are batched per player.
+     * Other packets are sent normally.
+     */
+    public static void withBatchedRedirect(RegistryKey<World> dimension, Runnable func) {
+        RegistryKey<World> oldBatchingDimension = batchingDimension;
+        batchingDimension = dimension;
+        try {
+            func.run();
+        }
+        finally {
+            batchingDimension = oldBatchingDimension;
+            flushBatchedPackets(dimension);
+        }
+    }
+    
+    /**
+     * Called when a packet is sent while force redirecting
+     * {@link com.qouteall.immersive_portals.mixin.common.entity_sync.MixinServerPlayNetworkHandler_E}
+     */
+    public static void sendForceRedirectedPacket(
+        ServerPlayNetworkHandler networkHandler,
+        Packet<?> packet,
+        @Nullable GenericFutureListener<? extends Future<? super Void>> listener
+    ) {
+        RegistryKey<World> dimension = forceRedirect;
+        
+        if (dimension == batchingDimension && listener == null) {
+            if (tryAddToBatch(networkHandler, dimension, packet)) {
+                return;
+            }
+        }
+        
+        // keep the packet order
+        if (dimension == batchingDimension) {
+            PacketBatch batch = batchedPackets.remove(networkHandler);
+            if (batch != null) {
+                sendBatch(networkHandler, dimension, batch);
+            }
+        }
+        
+        withForceRedirect(null, () -> {
+            networkHandler.sendPacket(
+                MyNetwork.createRedirectedMessage(dimension, packet),
+                listener
+            );
+        });
+    }
+    
+    // return false if the packet alone is too large to be batched
+    private static boolean tryAddToBatch(
+        ServerPlayNetworkHandler networkHandler,
+        RegistryKey<World> dimension,
+        Packet<?> packet
+    ) {
+        PacketBatch batch = batchedPackets.computeIfAbsent(
+            networkHandler, k -> new PacketBatch()
+        );
+        
+        int sizeBefore = batch.data.writerIndex();
+        MyNetwork.writeBatchedPacket(batch.data, packet);
+        int packetSize = batch.data.writerIndex() - sizeBefore;
+        
+        if (batch.data.writerIndex() <= maxBatchDataSize) {
+            batch.packetNum++;
+            return true;
+        }
+        
+        // send the previous packets and start a new batch with this packet
+        batch.data.writerIndex(sizeBefore);
+        batchedPackets.remove(networkHandler);
+        if (batch.packetNum != 0) {
+            sendBatch(networkHandler, dimension, batch);
+        }
+        else {
+            batch.data.release();
+        }
+        
+        if (packetSize > maxBatchDataSize) {
+            return false;
+        }
+        
+        PacketBatch newBatch = new PacketBatch();
+        MyNetwork.writeBatchedPacket(newBatch.data, packet);
+        newBatch.packetNum = 1;
+        batchedPackets.put(networkHandler, newBatch);
+        return true;
+    }
+    
+    private static void flushBatchedPackets(RegistryKey<World> dimension) {
+        if (batchedPackets.isEmpty()) {
+            return;
+        }
+        
+        ArrayList<Map.Entry<ServerPlayNetworkHandler, PacketBatch>> entries =
+            new ArrayList<>(batchedPackets.entrySet());
+        batchedPackets.clear();
+        
+        for (Map.Entry<ServerPlayNetworkHandler, PacketBatch> entry : entries) {
+            sendBatch(entry.getKey(), dimension, entry.getValue());
+        }
+    }
+    
+    private static void sendBatch(
+        ServerPlayNetworkHandler networkHandler,
+        RegistryKey<World> dimension,
+        PacketBatch batch
+    ) {
+        withForceRedirect(null, () -> {
+            networkHandler.sendPacket(
+                MyNetwork.createRedirectedBatchMessage(dimension, batch.packetNum, batch.data)
+            );
+        });
+    }
+    
     /**
      * If it's not null, all sent packets will be wrapped into redirected packet
      * {@link com.qouteall.immersive_portals.mixin.common.entity_sync.MixinServerPlayNetworkHandler_E}
@@ -124,6 +385,12 @@ public class EntitySync {
         if (getForceRedirectDimension() == dimension) {
             serverPlayNetworkHandler.sendPacket(packet);
         }
+        else if (batchingDimension == dimension) {
+            // keep the order with the batched packets
+            withForceRedirect(dimension, () -> {
+                serverPlayNetworkHandler.sendPacket(packet);
+            });
+        }
         else {
             serverPlayNetworkHandler.sendPacket(
                 MyNetwork.createRedirectedMessage(
@@ -5,6 +5,7 @@ import com.qouteall.immersive_portals.ducks.IEChunkTicketManager;
 import com.qouteall.immersive_portals.ducks.IEServerChunkManager;
 import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ChunkTicket;
 import net.minecraft.server.world.ChunkTicketManager;
 import net.minecraft.server.world.ChunkTicketType;
@@ -12,7 +13,9 @@ import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.collection.SortedArraySet;
 import net.minecraft.util.math.ChunkPos;
 
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.WeakHashMap;
 
 public class MyLoadingTicket {
@@ -26,29 +29,119 @@ public class MyLoadingTicket {
     public static final WeakHashMap<ServerWorld, LongSortedSet>
         loadedChunkRecord = new WeakHashMap<>();
     
+    // the ticket changes are gathered and applied together in flushPendingTickets
+    // a ticket that is added and removed before flushing does not reach the ticket manager
+    private static final WeakHashMap<ServerWorld, LongLinkedOpenHashSet>
+        pendingAdditions = new WeakHashMap<>();
+    private static final WeakHashMap<ServerWorld, LongLinkedOpenHashSet>
+        pendingRemovals = new WeakHashMap<>();
+    
     private static boolean hasOtherChunkTicket(ServerWorld world, ChunkPos chunkPos) {
         SortedArraySet<ChunkTicket<?>> chunkTickets =
             ((IEChunkTicketManager) getTicketManager(world))
                 .portal_getTicketSet(chunkPos.toLong());
-        return chunkTickets.stream().anyMatch(t -> t.getType() != ticketType);
+        for (ChunkTicket<?> ticket : chunkTickets) {
+            if (ticket.getType() != ticketType) {
+                return true;
+            }
+        }
+        return false;
     }
     
     public static void addTicketIfNotLoaded(ServerWorld world, ChunkPos chunkPos) {
-        boolean isNewlyAdded = getRecord(world).add(chunkPos.toLong());
+        long longChunkPos = chunkPos.toLong();
+        boolean isNewlyAdded = getRecord(world).add(longChunkPos);
         if (isNewlyAdded) {
-            getTicketManager(world).addTicket(
-                ticketType, chunkPos, getLoadingRadius(), chunkPos
-            );
+            if (!getPending(pendingRemovals, world).remove(longChunkPos)) {
+                getPending(pendingAdditions, world).add(longChunkPos);
+            }
         }
     }
     
     public static void removeTicket(ServerWorld world, ChunkPos chunkPos) {
-        boolean isNewlyRemoved = getRecord(world).remove(chunkPos.toLong());
+        long longChunkPos = chunkPos.toLong();
+        boolean isNewlyRemoved = getRecord(world).remove(longChunkPos);
         
         if (isNewlyRemoved) {
-            getTicketManager(world).removeTicket(
-                ticketType, chunkPos, getLoadingRadius(), chunkPos
-            );
+            if (!getPending(pendingAdditions, world).remove(longChunkPos)) {
+                getPending(pendingRemovals, world).add(longChunkPos);
+            }
+        }
+    }
+    
+    private static LongLinkedOpenHashSet getPending(
+        WeakHashMap<ServerWorld, LongLinkedOpenHashSet> map, ServerWorld world
+    ) {
+        return map.computeIfAbsent(world, k -> new LongLinkedOpenHashSet());
+    }
+    
+    // the tickets near players are added first
+    public static void flushPendingTickets() {
+        int radius = getLoadingRadius();
+        
+        pendingRemovals.forEach((world, removals) -> {
+            if (removals.isEmpty()) {
+                return;
+            }
+            ChunkTicketManager ticketManager = getTicketManager(world);
+            removals.forEach((long longChunkPos) -> {
+                ChunkPos chunkPos = new ChunkPos(longChunkPos);
+                ticketManager.removeTicket(ticketType, chunkPos, radius, chunkPos);
+            });
+            removals.clear();
+        });
+        
+        pendingAdditions.forEach((world, additions) -> {
+            if (additions.isEmpty()) {
+                return;
+            }
+            ChunkTicketManager ticketManager = getTicketManager(world);
+            
+            long[] sorted = additions.toLongArray();
+            additions.clear();
+            if (sorted.length > 1) {
+                sortByDistanceToPlayers(world, sorted);
+            }
+            
+            for (long longChunkPos : sorted) {
+                ChunkPos chunkPos = new ChunkPos(longChunkPos);
+                ticketManager.addTicket(ticketType, chunkPos, radius, chunkPos);
+            }
+        });
+    }
+    
+    private static void sortByDistanceToPlayers(ServerWorld world, long[] chunkPosArr) {
+        List<ServerPlayerEntity> players = world.getPlayers();
+        if (players.isEmpty()) {
+            return;
+        }
+        
+        // pack the distance into the higher bits so that sorting the keys sorts by distance
+        int[] playerXs = new int[players.size()];
+        int[] playerZs = new int[players.size()];
+        for (int i = 0; i < players.size(); i++) {
+            playerXs[i] = players.get(i).chunkX;
+            playerZs[i] = players.get(i).chunkZ;
+        }
+        
+        long[] keys = new long[chunkPosArr.length];
+        for (int i = 0; i < chunkPosArr.length; i++) {
+            int x = ChunkPos.getPackedX(chunkPosArr[i]);
+            int z = ChunkPos.getPackedZ(chunkPosArr[i]);
+            int distance = Integer.MAX_VALUE;
+            for (int j = 0; j < playerXs.length; j++) {
+                distance = Math.min(
+                    distance,
+                    Math.max(Math.abs(x - playerXs[j]), Math.abs(z - playerZs[j]))
+                );
+            }
+            keys[i] = (((long) Math.min(distance, 0xFFFF)) << 32) | i;
+        }
+        Arrays.sort(keys);
+        
+        long[] copied = chunkPosArr.clone();
+        for (int i = 0; i < keys.length; i++) {
+            chunkPosArr[i] = copied[(int) keys[i]];
         }
     }
     
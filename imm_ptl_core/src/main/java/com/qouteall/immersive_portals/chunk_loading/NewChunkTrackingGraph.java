@@ -1,15 +1,17 @@
 package com.qouteall.immersive_portals.chunk_loading;
 
 import com.qouteall.hiding_in_the_bushes.MyNetwork;
+import com.qouteall.immersive_portals.Global;
 import com.qouteall.immersive_portals.Helper;
 import com.qouteall.immersive_portals.McHelper;
 import com.qouteall.immersive_portals.ModMain;
 import com.qouteall.immersive_portals.my_util.SignalBiArged;
-import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.network.packet.s2c.play.UnloadChunkS2CPacket;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
@@ -18,11 +20,15 @@ import net.minecraft.util.registry.RegistryKey;
 import net.minecraft.world.World;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.function.Consumer;
-import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class NewChunkTrackingGraph {
@@ -30,109 +36,176 @@ public class NewChunkTrackingGraph {
     public static final int updateInterval = 40;
     public static boolean addCustomTicketForDirectLoadingDelayed = true;
     
-    public static class PlayerWatchRecord {
-        public ServerPlayerEntity player;
-        public long lastWatchTime;
-        public int distanceToSource;
-        public boolean isDirectLoading;
-        
-        public PlayerWatchRecord(ServerPlayerEntity player, long lastWatchTime, int distanceToSource, boolean isDirectLoading) {
-            this.player = player;
-            this.lastWatchTime = lastWatchTime;
-            this.distanceToSource = distanceToSource;
-            this.isDirectLoading = isDirectLoading;
-        }
-    }
+    // In incremental mode, only the chunks that entered or left a player's loaders are visited
+    // instead of iterating all chunk loader squares and purging all chunk records
+    private static boolean incrementalTracking = false;
     
     private static void updateWatchingStatus(
-        ArrayList<PlayerWatchRecord> records,
-        ServerPlayerEntity player,
+        ChunkWatchStorage storage,
+        long chunkPos,
+        int playerSlot,
         long currGameTime,
         int distanceToSource,
         boolean isDirectLoading,
         Runnable addWatchInformer
     ) {
-        int i = Helper.indexOf(records, r -> r.player == player);
-        if (i == -1) {
-            records.add(new PlayerWatchRecord(
-                player, currGameTime, distanceToSource, isDirectLoading
-            ));
+        int index = storage.find(chunkPos, playerSlot);
+        if (index == ChunkWatchStorage.NONE) {
+            storage.add(
+                chunkPos, playerSlot, currGameTime, distanceToSource, isDirectLoading
+            );
             
             addWatchInformer.run();
         }
         else {
-            PlayerWatchRecord record = records.get(i);
-            
-            if (record.lastWatchTime == currGameTime) {
+            if (storage.getLastWatchTime(index) == currGameTime) {
                 //being updated again in the same turn
-                int oldDistance = record.distanceToSource;
+                int oldDistance = storage.getDistanceToSource(index);
                 int newDistance = Math.min(oldDistance, distanceToSource);
-                record.distanceToSource = newDistance;
-                record.isDirectLoading = isDirectLoading;
+                storage.setWatchStatus(index, newDistance, isDirectLoading);
             }
             else {
                 //being updated at the first time in this turn
-                record.distanceToSource = distanceToSource;
-                record.lastWatchTime = currGameTime;
-                record.isDirectLoading = (record.isDirectLoading | isDirectLoading);
+                storage.setWatchStatus(
+                    index, distanceToSource,
+                    storage.isDirectLoading(index) | isDirectLoading
+                );
+                storage.setLastWatchTime(index, currGameTime);
             }
         }
     }
     
-    private static void removeInactiveWatchers(
-        ArrayList<PlayerWatchRecord> records,
-        Predicate<PlayerWatchRecord> predicate,
-        Consumer<ServerPlayerEntity> informer
-    ) {
-        records.removeIf(r -> {
-            boolean shouldRemove = predicate.test(r);
-            if (shouldRemove) {
-                informer.accept(r.player);
-            }
-            return shouldRemove;
-        });
-    }
-    
-    private static boolean isBeingWatchedByAnyPlayer(ArrayList<PlayerWatchRecord> records) {
-        return !records.isEmpty();
-    }
-    
     private static boolean shouldAddCustomTicket(
         ServerWorld world,
         long chunkPos,
-        ArrayList<PlayerWatchRecord> records
+        ChunkWatchStorage storage
     ) {
-        boolean isIndirectLoading = Helper.indexOf(records, r -> !r.isDirectLoading) != -1;
-        
-        return isIndirectLoading;
+        for (int index = storage.getFirstRecordOfChunk(chunkPos);
+             index != ChunkWatchStorage.NONE;
+             index = storage.getNextRecordOfChunk(index)
+        ) {
+            if (!storage.isDirectLoading(index)) {
+                return true;
+            }
+        }
+        return false;
     }
     
-    // Every chunk has a list of watching records
-    private static final Map<RegistryKey<World>, Long2ObjectLinkedOpenHashMap<ArrayList<PlayerWatchRecord>>>
+    // The watch records of each dimension
+    private static final Map<RegistryKey<World>, ChunkWatchStorage>
         data = new HashMap<>();
     
+    // the watch records refer to players by slot
+    private static final Object2IntOpenHashMap<ServerPlayerEntity> playerSlotMap =
+        new Object2IntOpenHashMap<>();
+    private static final ArrayList<ServerPlayerEntity> slotPlayers = new ArrayList<>();
+    private static final IntArrayList freeSlots = new IntArrayList();
+    
+    static {
+        playerSlotMap.defaultReturnValue(ChunkWatchStorage.NONE);
+    }
+    
     private static final ArrayList<WeakReference<ChunkVisibilityManager.ChunkLoader>>
         additionalChunkLoaders = new ArrayList<>();
     
+    // the chunk loaders of each player at the last update. only used in incremental mode
+    private static final Map<ServerPlayerEntity, List<ChunkVisibilityManager.ChunkLoader>>
+        playerLoaders = new HashMap<>();
+    
+    // the chunks that left a player's loaders and are waiting for the unload delay
+    // ordered by leave time. only used in incremental mode
+    private static final ArrayDeque<LeavingRecord> leavingQueue = new ArrayDeque<>();
+    
+    private static class LeavingRecord {
+        public final ServerPlayerEntity player;
+        public final RegistryKey<World> dimension;
+        public final long chunkPos;
+        public final long leaveTime;
+        
+        public LeavingRecord(ServerPlayerEntity player, RegistryKey<World> dimension, long chunkPos, long leaveTime) {
+            this.player = player;
+            this.dimension = dimension;
+            this.chunkPos = chunkPos;
+            this.leaveTime = leaveTime;
+        }
+    }
+    
+    public static interface WatchedChunkConsumer {
+        void accept(ServerPlayerEntity player, RegistryKey<World> dimension, long chunkPos);
+    }
+    
     public static final SignalBiArged<ServerPlayerEntity, DimensionalChunkPos> beginWatchChunkSignal = new SignalBiArged<>();
     public static final SignalBiArged<ServerPlayerEntity, DimensionalChunkPos> endWatchChunkSignal = new SignalBiArged<>();
     
-    private static Long2ObjectLinkedOpenHashMap<ArrayList<PlayerWatchRecord>> getChunkRecordMap(RegistryKey<World> dimension) {
-        return data.computeIfAbsent(dimension, k -> new Long2ObjectLinkedOpenHashMap<>());
+    private static ChunkWatchStorage getChunkWatchStorage(RegistryKey<World> dimension) {
+        return data.computeIfAbsent(dimension, k -> new ChunkWatchStorage());
+    }
+    
+    private static int getPlayerSlot(ServerPlayerEntity player) {
+        return playerSlotMap.getInt(player);
+    }
+    
+    private static int getOrAllocatePlayerSlot(ServerPlayerEntity player) {
+        int slot = playerSlotMap.getInt(player);
+        if (slot != ChunkWatchStorage.NONE) {
+            return slot;
+        }
+        
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.removeInt(freeSlots.size() - 1);
+            slotPlayers.set(slot, player);
+        }
+        else {
+            slot = slotPlayers.size();
+            slotPlayers.add(player);
+        }
+        playerSlotMap.put(player, slot);
+        return slot;
+    }
+    
+    private static ServerPlayerEntity getPlayerBySlot(int slot) {
+        return slotPlayers.get(slot);
+    }
+    
+    // only release the slot after all records of that player are removed
+    private static void releasePlayerSlot(ServerPlayerEntity player) {
+        int slot = playerSlotMap.removeInt(player);
+        if (slot != ChunkWatchStorage.NONE) {
+            slotPlayers.set(slot, null);
+            freeSlots.add(slot);
+        }
+    }
+    
+    private static void releaseRemovedPlayerSlots() {
+        List<ServerPlayerEntity> removedPlayers = playerSlotMap.keySet().stream()
+            .filter(player -> player.removed).collect(Collectors.toList());
+        removedPlayers.forEach(NewChunkTrackingGraph::releasePlayerSlot);
     }
     
     public static void updateForPlayer(ServerPlayerEntity player) {
+        updateForPlayer(
+            player,
+            ChunkVisibilityManager.getChunkLoaders(player).collect(Collectors.toList())
+        );
+    }
+    
+    public static void updateForPlayer(
+        ServerPlayerEntity player, List<ChunkVisibilityManager.ChunkLoader> chunkLoaders
+    ) {
+        if (incrementalTracking) {
+            updateForPlayerIncrementally(player, chunkLoaders);
+            return;
+        }
+        
         long gameTime = McHelper.getOverWorldOnServer().getTime();
-        ChunkVisibilityManager.getChunkLoaders(player)
+        int playerSlot = getOrAllocatePlayerSlot(player);
+        chunkLoaders
             .forEach(chunkLoader -> chunkLoader.foreachChunkPos(
                 (dimension, x, z, distanceToSource) -> {
-                    ArrayList<PlayerWatchRecord> records = getChunkRecordMap(dimension).computeIfAbsent(
-                        ChunkPos.toLong(x, z),
-                        k -> new ArrayList<>()
-                    );
                     updateWatchingStatus(
-                        records,
-                        player,
+                        getChunkWatchStorage(dimension),
+                        ChunkPos.toLong(x, z),
+                        playerSlot,
                         gameTime,
                         distanceToSource,
                         chunkLoader.isDirectLoader,
@@ -148,49 +221,281 @@ public class NewChunkTrackingGraph {
             ));
     }
     
+    private static void updateForPlayerIncrementally(
+        ServerPlayerEntity player, List<ChunkVisibilityManager.ChunkLoader> newLoaders
+    ) {
+        long gameTime = McHelper.getOverWorldOnServer().getTime();
+        
+        List<ChunkVisibilityManager.ChunkLoader> oldLoaders =
+            playerLoaders.getOrDefault(player, Collections.emptyList());
+        
+        if (isSameLoaderList(oldLoaders, newLoaders)) {
+            return;
+        }
+        
+        playerLoaders.put(player, newLoaders);
+        
+        ChunkVisibilityManager.ChunkLoader[] oldMatchedByNew =
+            new ChunkVisibilityManager.ChunkLoader[newLoaders.size()];
+        ChunkVisibilityManager.ChunkLoader[] newMatchedByOld =
+            new ChunkVisibilityManager.ChunkLoader[oldLoaders.size()];
+        matchLoaders(oldLoaders, newLoaders, newMatchedByOld, oldMatchedByNew);
+        
+        // every chunk that entered, left or changed its covering loaders is in
+        // the difference between a loader and its matched loader
+        ChunkVisibilityManager.ChunkPosConsumer changedChunkHandler = (dimension, x, z, dis) ->
+            onChunkCoverageMayChange(player, newLoaders, dimension, x, z, gameTime);
+        
+        for (int i = 0; i < newLoaders.size(); i++) {
+            newLoaders.get(i).foreachChunkPosExcluding(oldMatchedByNew[i], changedChunkHandler);
+        }
+        for (int i = 0; i < oldLoaders.size(); i++) {
+            oldLoaders.get(i).foreachChunkPosExcluding(newMatchedByOld[i], changedChunkHandler);
+        }
+    }
+    
+    private static void onChunkCoverageMayChange(
+        ServerPlayerEntity player,
+        List<ChunkVisibilityManager.ChunkLoader> loaders,
+        RegistryKey<World> dimension,
+        int x, int z,
+        long gameTime
+    ) {
+        int distanceToSource = Integer.MAX_VALUE;
+        boolean isDirectLoading = false;
+        for (ChunkVisibilityManager.ChunkLoader loader : loaders) {
+            if (loader.isInRange(dimension, x, z)) {
+                distanceToSource = Math.min(distanceToSource, loader.getDistanceToCenter(x, z));
+                isDirectLoading = isDirectLoading || loader.isDirectLoader;
+            }
+        }
+        
+        long chunkPos = ChunkPos.toLong(x, z);
+        ChunkWatchStorage storage = getChunkWatchStorage(dimension);
+        int playerSlot = getOrAllocatePlayerSlot(player);
+        int index = storage.find(chunkPos, playerSlot);
+        
+        if (distanceToSource == Integer.MAX_VALUE) {
+            // left all loaders. end watching after the unload delay
+            if (index == ChunkWatchStorage.NONE) {
+                return;
+            }
+            storage.setLastWatchTime(index, gameTime);
+            leavingQueue.addLast(new LeavingRecord(player, dimension, chunkPos, gameTime));
+            return;
+        }
+        
+        if (index == ChunkWatchStorage.NONE) {
+            storage.add(chunkPos, playerSlot, gameTime, distanceToSource, isDirectLoading);
+            beginWatchChunkSignal.emit(player, new DimensionalChunkPos(dimension, x, z));
+        }
+        else {
+            storage.setLastWatchTime(index, gameTime);
+            storage.setWatchStatus(index, distanceToSource, isDirectLoading);
+        }
+        
+        if (!isDirectLoading) {
+            MyLoadingTicket.addTicketIfNotLoaded(
+                McHelper.getServer().getWorld(dimension), new ChunkPos(chunkPos)
+            );
+        }
+    }
+    
+    private static boolean isSameLoaderList(
+        List<ChunkVisibilityManager.ChunkLoader> a,
+        List<ChunkVisibilityManager.ChunkLoader> b
+    ) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            ChunkVisibilityManager.ChunkLoader loaderA = a.get(i);
+            ChunkVisibilityManager.ChunkLoader loaderB = b.get(i);
+            if (!loaderA.equals(loaderB) || loaderA.isDirectLoader != loaderB.isDirectLoader) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // pair every new loader with the nearest unpaired old loader of the same kind
+    // the pairing only affects how many chunks are visited, not the result
+    private static void matchLoaders(
+        List<ChunkVisibilityManager.ChunkLoader> oldLoaders,
+        List<ChunkVisibilityManager.ChunkLoader> newLoaders,
+        ChunkVisibilityManager.ChunkLoader[] newMatchedByOld,
+        ChunkVisibilityManager.ChunkLoader[] oldMatchedByNew
+    ) {
+        for (int newIndex = 0; newIndex < newLoaders.size(); newIndex++) {
+            ChunkVisibilityManager.ChunkLoader newLoader = newLoaders.get(newIndex);
+            
+            int bestIndex = -1;
+            int bestDifference = Integer.MAX_VALUE;
+            for (int oldIndex = 0; oldIndex < oldLoaders.size(); oldIndex++) {
+                if (newMatchedByOld[oldIndex] != null) {
+                    continue;
+                }
+                ChunkVisibilityManager.ChunkLoader oldLoader = oldLoaders.get(oldIndex);
+                if (oldLoader.center.dimension != newLoader.center.dimension ||
+                    oldLoader.isDirectLoader != newLoader.isDirectLoader
+                ) {
+                    continue;
+                }
+                int difference = newLoader.getDistanceToCenter(oldLoader.center.x, oldLoader.center.z) +
+                    Math.abs(newLoader.radius - oldLoader.radius);
+                if (difference < bestDifference) {
+                    bestDifference = difference;
+                    bestIndex = oldIndex;
+                }
+            }
+            
+            if (bestIndex != -1) {
+                newMatchedByOld[bestIndex] = newLoader;
+                oldMatchedByNew[newIndex] = oldLoaders.get(bestIndex);
+            }
+        }
+    }
+    
+    private static boolean isCoveredByPlayerLoaders(
+        ServerPlayerEntity player, RegistryKey<World> dimension, long chunkPos
+    ) {
+        List<ChunkVisibilityManager.ChunkLoader> loaders = playerLoaders.get(player);
+        if (loaders == null) {
+            return false;
+        }
+        int x = ChunkPos.getPackedX(chunkPos);
+        int z = ChunkPos.getPackedZ(chunkPos);
+        for (ChunkVisibilityManager.ChunkLoader loader : loaders) {
+            if (loader.isInRange(dimension, x, z)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // the distance stored in record is not refreshed for the chunks that stay in
+    // a moving loader in incremental mode, so calculate it from the loaders
+    private static int getDistanceToPlayerLoaders(
+        ServerPlayerEntity player, RegistryKey<World> dimension, int x, int z
+    ) {
+        List<ChunkVisibilityManager.ChunkLoader> loaders = playerLoaders.get(player);
+        int result = Integer.MAX_VALUE;
+        if (loaders == null) {
+            return result;
+        }
+        for (ChunkVisibilityManager.ChunkLoader loader : loaders) {
+            if (loader.isInRange(dimension, x, z)) {
+                result = Math.min(result, loader.getDistanceToCenter(x, z));
+            }
+        }
+        return result;
+    }
+    
+    private static void purgeIncrementally() {
+        long unloadTimeValve = getUnloadTimeValve();
+        long currTime = McHelper.getOverWorldOnServer().getTime();
+        
+        while (!leavingQueue.isEmpty() &&
+            currTime - leavingQueue.peekFirst().leaveTime > unloadTimeValve
+        ) {
+            LeavingRecord leavingRecord = leavingQueue.pollFirst();
+            ServerPlayerEntity player = leavingRecord.player;
+            
+            int playerSlot = getPlayerSlot(player);
+            if (playerSlot == ChunkWatchStorage.NONE) {
+                continue;
+            }
+            ChunkWatchStorage storage = getChunkWatchStorage(leavingRecord.dimension);
+            int index = storage.find(leavingRecord.chunkPos, playerSlot);
+            if (index == ChunkWatchStorage.NONE) {
+                continue;
+            }
+            
+            // it re-entered after leaving
+            if (storage.getLastWatchTime(index) != leavingRecord.leaveTime ||
+                isCoveredByPlayerLoaders(player, leavingRecord.dimension, leavingRecord.chunkPos)
+            ) {
+                continue;
+            }
+            
+            storage.remove(index);
+            if (!player.removed) {
+                endWatchChunkSignal.emit(
+                    player,
+                    new DimensionalChunkPos(
+                        leavingRecord.dimension,
+                        ChunkPos.getPackedX(leavingRecord.chunkPos),
+                        ChunkPos.getPackedZ(leavingRecord.chunkPos)
+                    )
+                );
+            }
+        }
+        
+        boolean hasRemovedPlayer = playerSlotMap.keySet().stream().anyMatch(player -> player.removed);
+        if (hasRemovedPlayer) {
+            playerLoaders.keySet().removeIf(player -> player.removed);
+            playerSlotMap.forEach((player, slot) -> {
+                if (player.removed) {
+                    data.forEach((dimension, storage) -> storage.forEachRecordOfPlayer(
+                        slot, storage::remove
+                    ));
+                }
+            });
+            releaseRemovedPlayerSlots();
+        }
+        
+        updateTickets(false);
+    }
+    
     private static void updateAndPurge() {
+        if (incrementalTracking) {
+            purgeIncrementally();
+            return;
+        }
+        
         long unloadTimeValve = getUnloadTimeValve();
         long currTime = McHelper.getOverWorldOnServer().getTime();
-        data.forEach((dimension, chunkRecords) -> {
-            chunkRecords.long2ObjectEntrySet().removeIf(entry -> {
-                long chunkPosLong = entry.getLongKey();
+        data.forEach((dimension, storage) -> {
+            storage.removeIf(index -> {
+                ServerPlayerEntity player = getPlayerBySlot(storage.getPlayerSlot(index));
                 
-                ArrayList<PlayerWatchRecord> records = entry.getValue();
+                boolean shouldRemove = currTime - storage.getLastWatchTime(index) > unloadTimeValve ||
+                    player.removed;
                 
-                removeInactiveWatchers(
-                    records,
-                    (r) -> {
-                        return currTime - r.lastWatchTime > unloadTimeValve || r.player.removed;
-                    },
-                    player -> {
-                        if (player.removed) return;
-                        endWatchChunkSignal.emit(
-                            player,
-                            new DimensionalChunkPos(
-                                dimension,
-                                ChunkPos.getPackedX(chunkPosLong),
-                                ChunkPos.getPackedZ(chunkPosLong)
-                            )
-                        );
-                    }
-                );
+                if (shouldRemove && !player.removed) {
+                    long chunkPosLong = storage.getChunkPos(index);
+                    endWatchChunkSignal.emit(
+                        player,
+                        new DimensionalChunkPos(
+                            dimension,
+                            ChunkPos.getPackedX(chunkPosLong),
+                            ChunkPos.getPackedZ(chunkPosLong)
+                        )
+                    );
+                }
                 
-                return !isBeingWatchedByAnyPlayer(records);
+                return shouldRemove;
             });
         });
         
+        releaseRemovedPlayerSlots();
+        
+        updateTickets(true);
+    }
+    
+    // in incremental mode the indirect loading tickets are added when the chunk enters
+    private static void updateTickets(boolean addTicketsForRecords) {
         McHelper.getServer().getWorlds().forEach(world -> {
             
-            Long2ObjectLinkedOpenHashMap<ArrayList<PlayerWatchRecord>> chunkRecordMap = getChunkRecordMap(world.getRegistryKey());
+            ChunkWatchStorage chunkRecordMap = getChunkWatchStorage(world.getRegistryKey());
             
-            chunkRecordMap.long2ObjectEntrySet().forEach(entry -> {
-                long longChunkPos = entry.getLongKey();
-                ArrayList<PlayerWatchRecord> records = entry.getValue();
-                
-                if (shouldAddCustomTicket(world, longChunkPos, records)) {
-                    MyLoadingTicket.addTicketIfNotLoaded(world, new ChunkPos(longChunkPos));
-                }
-            });
+            if (addTicketsForRecords) {
+                chunkRecordMap.getWatchedChunks().forEach((long longChunkPos) -> {
+                    if (shouldAddCustomTicket(world, longChunkPos, chunkRecordMap)) {
+                        MyLoadingTicket.addTicketIfNotLoaded(world, new ChunkPos(longChunkPos));
+                    }
+                });
+            }
             
             LongSortedSet additionalLoadedChunks = new LongLinkedOpenHashSet();
             additionalChunkLoaders.forEach(weakRef -> {
@@ -209,7 +514,7 @@ public class NewChunkTrackingGraph {
             
             LongList chunksToUnload = new LongArrayList();
             MyLoadingTicket.getRecord(world).forEach((long longChunkPos) -> {
-                if (!chunkRecordMap.containsKey(longChunkPos) &&
+                if (!chunkRecordMap.isChunkWatched(longChunkPos) &&
                     !additionalLoadedChunks.contains(longChunkPos)
                 ) {
                     chunksToUnload.add(longChunkPos);
@@ -230,15 +535,27 @@ public class NewChunkTrackingGraph {
         McHelper.getServer().getProfiler().push("portal_chunk_tracking");
         
         long gameTime = McHelper.getOverWorldOnServer().getTime();
-        McHelper.getCopiedPlayerList().forEach(player -> {
-            if (player.getEntityId() % updateInterval == gameTime % updateInterval) {
-                updateForPlayer(player);
-            }
-        });
+        if (Global.parallelChunkLoaderComputation) {
+            ParallelChunkLoaderComputation.applyFinishedResults();
+            ParallelChunkLoaderComputation.submit(
+                McHelper.getCopiedPlayerList().stream()
+                    .filter(player -> player.getEntityId() % updateInterval == gameTime % updateInterval)
+                    .collect(Collectors.toList())
+            );
+        }
+        else {
+            McHelper.getCopiedPlayerList().forEach(player -> {
+                if (player.getEntityId() % updateInterval == gameTime % updateInterval) {
+                    updateForPlayer(player);
+                }
+            });
+        }
         if (gameTime % updateInterval == 0) {
             updateAndPurge();
         }
         
+        MyLoadingTicket.flushPendingTickets();
+        
         McHelper.getServer().getProfiler().pop();
     }
     
@@ -256,23 +573,78 @@ public class NewChunkTrackingGraph {
         ModMain.postServerTickSignal.connect(NewChunkTrackingGraph::tick);
     }
     
-    public static boolean isPlayerWatchingChunk(
+    public static boolean isIncrementalTracking() {
+        return incrementalTracking;
+    }
+    
+    public static void setIncrementalTracking(boolean enabled) {
+        if (incrementalTracking == enabled) {
+            return;
+        }
+        incrementalTracking = enabled;
+        
+        playerLoaders.clear();
+        leavingQueue.clear();
+        
+        if (McHelper.getServer() == null) {
+            return;
+        }
+        long currTime = McHelper.getOverWorldOnServer().getTime();
+        
+        if (enabled) {
+            // the existing records are not refreshed in incremental mode
+            // let them go through the leaving queue. the ones still covered will be kept
+            ArrayList<LeavingRecord> existingRecords = new ArrayList<>();
+            data.forEach((dimension, storage) -> storage.forEachRecord(
+                index -> existingRecords.add(new LeavingRecord(
+                    getPlayerBySlot(storage.getPlayerSlot(index)),
+                    dimension,
+                    storage.getChunkPos(index),
+                    storage.getLastWatchTime(index)
+                ))
+            ));
+            existingRecords.sort(Comparator.comparingLong(r -> r.leaveTime));
+            leavingQueue.addAll(existingRecords);
+        }
+        else {
+            // avoid unloading the chunks that were not refreshed in incremental mode
+            data.forEach((dimension, storage) -> storage.forEachRecord(
+                index -> storage.setLastWatchTime(index, currTime)
+            ));
+        }
+    }
+    
+    // returns ChunkWatchStorage.NONE if not watching
+    private static int getWatchRecordIndex(
         ServerPlayerEntity player,
-        RegistryKey<World> dimension,
-        int x, int z,
-        Predicate<PlayerWatchRecord> predicate
+        ChunkWatchStorage storage,
+        int x, int z
     ) {
-        ArrayList<PlayerWatchRecord> record = getChunkRecordMap(dimension)
-            .get(ChunkPos.toLong(x, z));
-        if (record == null) {
-            return false;
+        if (storage == null) {
+            return ChunkWatchStorage.NONE;
         }
-        int i = Helper.indexOf(record, r -> r.player == player);
-        if (i == -1) {
-            return false;
+        int playerSlot = getPlayerSlot(player);
+        if (playerSlot == ChunkWatchStorage.NONE) {
+            return ChunkWatchStorage.NONE;
+        }
+        return storage.find(ChunkPos.toLong(x, z), playerSlot);
+    }
+    
+    // only visits the records of these players
+    public static void foreachWatchedChunkOfPlayers(
+        Collection<ServerPlayerEntity> players,
+        WatchedChunkConsumer func
+    ) {
+        for (ServerPlayerEntity player : players) {
+            int slot = getPlayerSlot(player);
+            if (slot == ChunkWatchStorage.NONE) {
+                continue;
+            }
+            data.forEach((dimension, storage) -> storage.forEachRecordOfPlayer(
+                slot,
+                index -> func.accept(player, dimension, storage.getChunkPos(index))
+            ));
         }
-        
-        return predicate.test(record.get(i));
     }
     
     public static boolean isPlayerWatchingChunk(
@@ -280,7 +652,24 @@ public class NewChunkTrackingGraph {
         RegistryKey<World> dimension,
         int x, int z
     ) {
-        return isPlayerWatchingChunk(player, dimension, x, z, r -> true);
+        return getWatchRecordIndex(player, data.get(dimension), x, z) != ChunkWatchStorage.NONE;
+    }
+    
+    // returns the distance in chunks to the nearest chunk loader center, -1 if not watching
+    public static int getWatchingDistance(
+        ServerPlayerEntity player,
+        RegistryKey<World> dimension,
+        int x, int z
+    ) {
+        ChunkWatchStorage storage = data.get(dimension);
+        int index = getWatchRecordIndex(player, storage, x, z);
+        if (index == ChunkWatchStorage.NONE) {
+            return -1;
+        }
+        if (incrementalTracking) {
+            return getDistanceToPlayerLoaders(player, dimension, x, z);
+        }
+        return storage.getDistanceToSource(index);
     }
     
     public static boolean isPlayerWatchingChunkWithinRaidus(
@@ -289,27 +678,41 @@ public class NewChunkTrackingGraph {
         int x, int z,
         int radiusBlocks
     ) {
-        return isPlayerWatchingChunk(
-            player, dimension, x, z,
-            r -> r.distanceToSource * 16 <= radiusBlocks
-        );
+        int distance = getWatchingDistance(player, dimension, x, z);
+        if (distance == -1) {
+            return false;
+        }
+        return ((long) distance) * 16 <= radiusBlocks;
     }
     
     public static void cleanup() {
+        ParallelChunkLoaderComputation.cleanup();
         data.clear();
         additionalChunkLoaders.clear();
+        playerSlotMap.clear();
+        slotPlayers.clear();
+        freeSlots.clear();
+        playerLoaders.clear();
+        leavingQueue.clear();
     }
     
     public static Stream<ServerPlayerEntity> getPlayersViewingChunk(
         RegistryKey<World> dimension,
         int x, int z
     ) {
-        ArrayList<PlayerWatchRecord> records = getChunkRecordMap(dimension)
-            .get(ChunkPos.toLong(x, z));
-        if (records == null) {
+        ChunkWatchStorage storage = data.get(dimension);
+        if (storage == null) {
             return Stream.empty();
         }
-        return records.stream().map(r -> r.player);
+        int head = storage.getFirstRecordOfChunk(ChunkPos.toLong(x, z));
+        if (head == ChunkWatchStorage.NONE) {
+            return Stream.empty();
+        }
+        ArrayList<ServerPlayerEntity> players = new ArrayList<>();
+        for (int index = head; index != ChunkWatchStorage.NONE; index = storage.getNextRecordOfChunk(index)) {
+            players.add(getPlayerBySlot(storage.getPlayerSlot(index)));
+        }
+        return players.stream();
     }
     
     /**
@@ -329,32 +732,33 @@ public class NewChunkTrackingGraph {
     
     public static void forceRemovePlayer(ServerPlayerEntity player) {
         Helper.log("Chunk Tracking Graph Force Remove " + player.getName().asString());
-        data.forEach((dim, map) -> map.forEach(
-            (chunkPos, records) -> removeInactiveWatchers(
-                records,
-                (r) -> r.player == player,
-                p -> {
-                    //it solves issue but making respawn laggier
-                    p.networkHandler.sendPacket(
-                        MyNetwork.createRedirectedMessage(
-                            dim, new UnloadChunkS2CPacket(
-                                ChunkPos.getPackedX(chunkPos),
-                                ChunkPos.getPackedZ(chunkPos)
-                            )
-                        )
-                    );
-                }
-            )
-        ));
+        playerLoaders.remove(player);
+        int playerSlot = getPlayerSlot(player);
+        if (playerSlot == ChunkWatchStorage.NONE) {
+            return;
+        }
+        data.forEach((dim, storage) -> storage.forEachRecordOfPlayer(playerSlot, index -> {
+            long chunkPos = storage.getChunkPos(index);
+            //it solves issue but making respawn laggier
+            player.networkHandler.sendPacket(
+                MyNetwork.createRedirectedMessage(
+                    dim, new UnloadChunkS2CPacket(
+                        ChunkPos.getPackedX(chunkPos),
+                        ChunkPos.getPackedZ(chunkPos)
+                    )
+                )
+            );
+            storage.remove(index);
+        }));
+        releasePlayerSlot(player);
     }
     
     public static boolean shouldLoadDimension(RegistryKey<World> dimension) {
-        if (!data.containsKey(dimension)) {
+        ChunkWatchStorage storage = data.get(dimension);
+        if (storage == null) {
             return false;
         }
-        Long2ObjectLinkedOpenHashMap<ArrayList<PlayerWatchRecord>> map =
-            data.get(dimension);
-        return !map.isEmpty();
+        return !storage.isEmpty();
     }
     
     public static void addAdditionalChunkLoader(ChunkVisibilityManager.ChunkLoader chunkLoader) {
@@ -379,9 +783,12 @@ public class NewChunkTrackingGraph {
                 MyLoadingTicket.addTicketIfNotLoaded(((ServerWorld) player.world), new ChunkPos(x, z));
             }
         });
+        
+        // the tickets are needed now
+        MyLoadingTicket.flushPendingTickets();
     }
     
     public static int getLoadedChunkNum(RegistryKey<World> dimension) {
-        return getChunkRecordMap(dimension).size();
+        return getChunkWatchStorage(dimension).getChunkNum();
     }
 }
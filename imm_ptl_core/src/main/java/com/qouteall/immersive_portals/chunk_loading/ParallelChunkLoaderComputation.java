@@ -0,0 +1,331 @@
+package com.qouteall.immersive_portals.chunk_loading;
+
+import com.qouteall.immersive_portals.Helper;
+import com.qouteall.immersive_portals.McHelper;
+import com.qouteall.immersive_portals.portal.Portal;
+import com.qouteall.immersive_portals.portal.PortalSpatialIndex;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Util;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.registry.RegistryKey;
+import net.minecraft.world.World;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Computes the portal chunk loaders of players on worker threads.
+ * Entities cannot be accessed off-thread, so the portal index of each world is copied
+ * into an immutable snapshot on server thread. The snapshot is reused until the index changes.
+ * The workers find the portals near the players in the snapshots and calculate the loaders.
+ * The loading distance smoothing and the global portal loaders are applied on server thread
+ * because they use mutable portal state.
+ * {@link ChunkVisibilityManager#getChunkLoaders(ServerPlayerEntity)}
+ */
+public class ParallelChunkLoaderComputation {
+    
+    public static class PortalSnapshot {
+        // only accessed on server thread
+        public final Portal portal;
+        
+        public final Vec3d origin;
+        public final Vec3d normal;
+        public final Vec3d axisW;
+        public final Vec3d axisH;
+        public final double width;
+        public final double height;
+        public final Vec3d destination;
+        public final RegistryKey<World> dimensionTo;
+        public final double scaling;
+        public final double destAreaRadius;
+        @Nullable
+        public final UUID specificPlayerId;
+        
+        public PortalSnapshot(Portal portal) {
+            this.portal = portal;
+            this.origin = portal.getPos();
+            this.normal = portal.getNormal();
+            this.axisW = portal.axisW;
+            this.axisH = portal.axisH;
+            this.width = portal.width;
+            this.height = portal.height;
+            this.destination = portal.destination;
+            this.dimensionTo = portal.dimensionTo;
+            this.scaling = portal.scaling;
+            this.destAreaRadius = portal.getDestAreaRadius();
+            this.specificPlayerId = portal.specificPlayerId;
+        }
+        
+        public double getDistanceToNearestPointInPortal(Vec3d point) {
+            return Portal.getDistanceToNearestPointInPortal(
+                origin, normal, axisW, axisH, width, height, point
+            );
+        }
+        
+        // the same as Portal.canBeSpectated
+        public boolean canBeSpectated(UUID spectatorId) {
+            return specificPlayerId == null || specificPlayerId.equals(spectatorId);
+        }
+    }
+    
+    private static class PlayerSnapshot {
+        public final ServerPlayerEntity player;
+        public final UUID uuid;
+        public final Vec3d pos;
+        public final RegistryKey<World> dimension;
+        
+        public PlayerSnapshot(ServerPlayerEntity player) {
+            this.player = player;
+            this.uuid = player.getUuid();
+            this.pos = player.getPos();
+            this.dimension = player.world.getRegistryKey();
+        }
+    }
+    
+    // the state shared by the players computed in one tick
+    private static class TickSnapshot {
+        public final Map<RegistryKey<World>, PortalSpatialIndex.Snapshot<PortalSnapshot>> worlds;
+        public final int renderDistance;
+        public final boolean shrinkLoading;
+        
+        public TickSnapshot(
+            Map<RegistryKey<World>, PortalSpatialIndex.Snapshot<PortalSnapshot>> worlds,
+            int renderDistance,
+            boolean shrinkLoading
+        ) {
+            this.worlds = worlds;
+            this.renderDistance = renderDistance;
+            this.shrinkLoading = shrinkLoading;
+        }
+    }
+    
+    // a chunk loader whose radius is not smoothed yet
+    private static class PendingLoader {
+        public final PortalSnapshot portal;
+        public final DimensionalChunkPos center;
+        public final int targetRadius;
+        
+        public PendingLoader(PortalSnapshot portal, DimensionalChunkPos center, int targetRadius) {
+            this.portal = portal;
+            this.center = center;
+            this.targetRadius = targetRadius;
+        }
+    }
+    
+    private static class PlayerResult {
+        public final ServerPlayerEntity player;
+        public final List<PendingLoader> pendingLoaders;
+        
+        public PlayerResult(ServerPlayerEntity player, List<PendingLoader> pendingLoaders) {
+            this.player = player;
+            this.pendingLoaders = pendingLoaders;
+        }
+    }
+    
+    private static final ArrayDeque<CompletableFuture<List<PlayerResult>>> runningTasks =
+        new ArrayDeque<>();
+    
+    // only accessed on server thread
+    private static final Map<RegistryKey<World>, PortalSpatialIndex.Snapshot<PortalSnapshot>>
+        snapshotCache = new HashMap<>();
+    
+    /**
+     * Start computing the loaders of these players.
+     * The results are applied in later ticks by {@link ParallelChunkLoaderComputation#applyFinishedResults}
+     */
+    public static void submit(List<ServerPlayerEntity> players) {
+        if (players.isEmpty()) {
+            return;
+        }
+        
+        for (ServerPlayerEntity player : players) {
+            ((ServerWorld) player.world).checkEntityChunkPos(player);
+        }
+        
+        TickSnapshot tickSnapshot = new TickSnapshot(
+            getWorldSnapshots(),
+            McHelper.getRenderDistanceOnServer(),
+            ChunkVisibilityManager.shrinkLoading()
+        );
+        List<PlayerSnapshot> playerSnapshots = players.stream()
+            .map(PlayerSnapshot::new)
+            .collect(Collectors.toList());
+        
+        List<CompletableFuture<PlayerResult>> futures = playerSnapshots.stream()
+            .map(playerSnapshot -> CompletableFuture.supplyAsync(
+                () -> new PlayerResult(
+                    playerSnapshot.player,
+                    computePendingLoaders(tickSnapshot, playerSnapshot)
+                ),
+                Util.getMainWorkerExecutor()
+            ))
+            .collect(Collectors.toList());
+        
+        runningTasks.addLast(
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> futures.stream()
+                    .map(CompletableFuture::join)
+                    .collect(Collectors.toList())
+                )
+        );
+    }
+    
+    // the snapshot of a world is only copied again when its portal index changes
+    private static Map<RegistryKey<World>, PortalSpatialIndex.Snapshot<PortalSnapshot>> getWorldSnapshots() {
+        HashMap<RegistryKey<World>, PortalSpatialIndex.Snapshot<PortalSnapshot>> result =
+            new HashMap<>();
+        for (ServerWorld world : McHelper.getServer().getWorlds()) {
+            RegistryKey<World> dimension = world.getRegistryKey();
+            PortalSpatialIndex index = PortalSpatialIndex.get(world);
+            PortalSpatialIndex.Snapshot<PortalSnapshot> snapshot = snapshotCache.get(dimension);
+            if (snapshot == null || !snapshot.isUpToDate(index)) {
+                snapshot = index.createSnapshot(PortalSnapshot::new);
+                snapshotCache.put(dimension, snapshot);
+            }
+            result.put(dimension, snapshot);
+        }
+        return result;
+    }
+    
+    // apply in submission order so that a newer result is not overwritten by an older one
+    public static void applyFinishedResults() {
+        while (!runningTasks.isEmpty() && runningTasks.peekFirst().isDone()) {
+            CompletableFuture<List<PlayerResult>> task = runningTasks.pollFirst();
+            
+            List<PlayerResult> results;
+            try {
+                results = task.join();
+            }
+            catch (Throwable e) {
+                Helper.err("Failed to compute chunk loaders " + e);
+                e.printStackTrace();
+                continue;
+            }
+            
+            for (PlayerResult result : results) {
+                ServerPlayerEntity player = result.player;
+                if (player.removed) {
+                    continue;
+                }
+                NewChunkTrackingGraph.updateForPlayer(player, resolveLoaders(player, result));
+            }
+        }
+    }
+    
+    public static void cleanup() {
+        runningTasks.forEach(task -> task.cancel(false));
+        runningTasks.clear();
+        snapshotCache.clear();
+    }
+    
+    private static List<ChunkVisibilityManager.ChunkLoader> resolveLoaders(
+        ServerPlayerEntity player, PlayerResult result
+    ) {
+        return Stream.concat(
+            Stream.concat(
+                Stream.of(ChunkVisibilityManager.playerDirectLoader(player)),
+                result.pendingLoaders.stream().map(pendingLoader -> new ChunkVisibilityManager.ChunkLoader(
+                    pendingLoader.center,
+                    ChunkVisibilityManager.getSmoothedLoadingDistance(
+                        pendingLoader.portal.portal, player, pendingLoader.targetRadius
+                    )
+                ))
+            ),
+            ChunkVisibilityManager.getGlobalPortalLoaders(player)
+        ).distinct().collect(Collectors.toList());
+    }
+    
+    // runs on worker thread. only reads the snapshots
+    // the same as ChunkVisibilityManager.foreachLoadingPortal
+    private static List<PendingLoader> computePendingLoaders(
+        TickSnapshot tickSnapshot, PlayerSnapshot player
+    ) {
+        ArrayList<PendingLoader> result = new ArrayList<>();
+        
+        List<PortalSnapshot> nearbyPortals = findPortalsRough(
+            tickSnapshot.worlds.get(player.dimension),
+            player.pos,
+            (tickSnapshot.shrinkLoading ?
+                ChunkVisibilityManager.portalLoadingRange / 2 :
+                ChunkVisibilityManager.portalLoadingRange) / 16,
+            player.uuid
+        );
+        
+        for (PortalSnapshot portal : nearbyPortals) {
+            result.add(new PendingLoader(
+                portal,
+                ChunkVisibilityManager.getPortalLoaderCenter(portal.dimensionTo, portal.destination),
+                ChunkVisibilityManager.getPortalDirectLoadingTarget(
+                    tickSnapshot.renderDistance,
+                    portal.getDistanceToNearestPointInPortal(player.pos),
+                    portal.scaling,
+                    portal.destAreaRadius
+                )
+            ));
+            
+            if (tickSnapshot.shrinkLoading) {
+                continue;
+            }
+            
+            List<PortalSnapshot> remotePortals = findPortalsRough(
+                tickSnapshot.worlds.get(portal.dimensionTo),
+                portal.destination,
+                ChunkVisibilityManager.secondaryPortalLoadingRange / 16,
+                player.uuid
+            );
+            for (PortalSnapshot remotePortal : remotePortals) {
+                result.add(new PendingLoader(
+                    remotePortal,
+                    ChunkVisibilityManager.getPortalLoaderCenter(
+                        remotePortal.dimensionTo, remotePortal.destination
+                    ),
+                    ChunkVisibilityManager.getPortalIndirectLoadingTarget(
+                        tickSnapshot.renderDistance
+                    )
+                ));
+            }
+        }
+        
+        return result;
+    }
+    
+    // the same as McHelper.findEntitiesRough
+    private static List<PortalSnapshot> findPortalsRough(
+        @Nullable PortalSpatialIndex.Snapshot<PortalSnapshot> worldSnapshot,
+        Vec3d center,
+        int radiusChunks,
+        UUID spectatorId
+    ) {
+        if (worldSnapshot == null) {
+            return Collections.emptyList();
+        }
+        
+        // the minimun is 1
+        if (radiusChunks == 0) {
+            radiusChunks = 1;
+        }
+        
+        ChunkPos chunkPos = new ChunkPos(new BlockPos(center));
+        
+        List<PortalSnapshot> result = worldSnapshot.getPortalsInChunkRange(
+            chunkPos.x - radiusChunks,
+            chunkPos.x + radiusChunks,
+            chunkPos.z - radiusChunks,
+            chunkPos.z + radiusChunks
+        );
+        result.removeIf(portal -> !portal.canBeSpectated(spectatorId));
+        return result;
+    }
+}
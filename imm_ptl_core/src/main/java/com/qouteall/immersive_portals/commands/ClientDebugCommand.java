@@ -543,11 +543,21 @@ public class ClientDebugCommand {
             "add_custom_ticket_for_direct_loading_delayed",
             cond -> NewChunkTrackingGraph.addCustomTicketForDirectLoadingDelayed = cond
         );
+        registerSwitchCommand(
+            builder,
+            "incremental_chunk_tracking",
+            NewChunkTrackingGraph::setIncrementalTracking
+        );
         registerSwitchCommand(
             builder,
             "server_smooth_loading",
             cond -> Global.serverSmoothLoading = cond
         );
+        registerSwitchCommand(
+            builder,
+            "parallel_chunk_loader_computation",
+            cond -> Global.parallelChunkLoaderComputation = cond
+        );
         registerSwitchCommand(
             builder,
             "secondary_vertex_consumer",
@@ -1,6 +1,5 @@
 package com.qouteall.immersive_portals.commands;
 
-import com.google.common.collect.Streams;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.BoolArgumentType;
 import com.mojang.brigadier.arguments.DoubleArgumentType;
@@ -17,7 +16,6 @@ import com.qouteall.immersive_portals.portal.GeometryPortalShape;
 import com.qouteall.immersive_portals.portal.Portal;
 import com.qouteall.immersive_portals.portal.PortalManipulation;
 import com.qouteall.immersive_portals.portal.global_portals.BorderBarrierFiller;
-import com.qouteall.immersive_portals.portal.global_portals.GlobalTrackedPortal;
 import com.qouteall.immersive_portals.portal.global_portals.VerticalConnectingPortal;
 import com.qouteall.immersive_portals.portal.global_portals.WorldWrappingPortal;
 import net.minecraft.client.util.math.Vector3f;
@@ -48,15 +46,12 @@ import net.minecraft.util.registry.RegistryKey;
 import net.minecraft.world.World;
 
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 public class PortalCommand {
     public static void registerClientDebugCommand(
@@ -1556,30 +1551,13 @@ public class PortalCommand {
     public static Optional<Pair<Portal, Vec3d>> raytracePortals(
         World world, Vec3d from, Vec3d to, boolean includeGlobalPortal
     ) {
-        Stream<Portal> portalStream = McHelper.getEntitiesNearby(
-            world,
-            from,
-            Portal.class,
-            from.distanceTo(to)
-        );
-        if (includeGlobalPortal) {
-            List<GlobalTrackedPortal> globalPortals = McHelper.getGlobalPortals(world);
-            portalStream = Streams.concat(
-                portalStream,
-                globalPortals.stream()
-            );
-        }
-        return portalStream.map(
-            portal -> new Pair<Portal, Vec3d>(
-                portal, portal.rayTrace(from, to)
-            )
-        ).filter(
-            portalAndHitPos -> portalAndHitPos.getSecond() != null
-        ).min(
-            Comparator.comparingDouble(
-                portalAndHitPos -> portalAndHitPos.getSecond().squaredDistanceTo(from)
-            )
+        net.minecraft.util.Pair<Portal, Vec3d> hit = Helper.rayTraceNearestPortal(
+            world, from, to, includeGlobalPortal, null
         );
+        if (hit == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new Pair<>(hit.getLeft(), hit.getRight()));
     }
     
     private static void makePortalRound(Portal portal) {
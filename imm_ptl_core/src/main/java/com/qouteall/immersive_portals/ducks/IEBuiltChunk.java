@@ -2,8 +2,4 @@ package com.qouteall.immersive_portals.ducks;
 
 public interface IEBuiltChunk {
     void fullyReset();
-    
-    long getMark();
-    
-    void setMark(long arg);
 }
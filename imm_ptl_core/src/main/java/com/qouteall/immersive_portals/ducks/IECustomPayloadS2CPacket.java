@@ -0,0 +1,13 @@
+package com.qouteall.immersive_portals.ducks;
+
+import net.minecraft.network.PacketByteBuf;
+
+import java.util.function.Consumer;
+
+public interface IECustomPayloadS2CPacket {
+    // the payload will be written when the packet is being sent
+    void setLazyPayload(Consumer<PacketByteBuf> payloadWriter);
+    
+    // null if the payload is not lazy
+    Consumer<PacketByteBuf> getLazyPayload();
+}
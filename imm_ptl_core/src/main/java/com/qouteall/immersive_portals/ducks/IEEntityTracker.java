@@ -2,7 +2,6 @@ package com.qouteall.immersive_portals.ducks;
 
 import net.minecraft.entity.Entity;
 import net.minecraft.server.network.ServerPlayerEntity;
-import net.minecraft.util.math.ChunkSectionPos;
 
 public interface IEEntityTracker {
     Entity getEntity_();
@@ -16,8 +15,4 @@ public interface IEEntityTracker {
     void stopTrackingToAllPlayers_();
     
     void tickEntry();
-    
-    ChunkSectionPos getLastCameraPosition();
-    
-    void setLastCameraPosition(ChunkSectionPos arg);
 }
@@ -1,8 +1,11 @@
 package com.qouteall.immersive_portals.ducks;
 
+import com.qouteall.immersive_portals.portal.PortalSpatialIndex;
 import net.minecraft.world.MutableWorldProperties;
 
 public interface IEWorld {
     
     MutableWorldProperties myGetProperties();
+    
+    PortalSpatialIndex getPortalSpatialIndex();
 }
@@ -3,6 +3,8 @@ package com.qouteall.immersive_portals.mixin.client;
 import com.qouteall.hiding_in_the_bushes.O_O;
 import com.qouteall.immersive_portals.CGlobal;
 import com.qouteall.immersive_portals.ducks.IEClientWorld;
+import com.qouteall.immersive_portals.portal.Portal;
+import com.qouteall.immersive_portals.portal.PortalSpatialIndex;
 import com.qouteall.immersive_portals.portal.global_portals.GlobalTrackedPortal;
 import net.minecraft.client.network.ClientPlayNetworkHandler;
 import net.minecraft.client.network.ClientPlayerEntity;
@@ -105,6 +107,20 @@ public abstract class MixinClientWorld implements IEClientWorld {
                 world.removeEntity(entityId);
             }
         }
+        
+        if (entityIn instanceof Portal) {
+            PortalSpatialIndex.onPortalLoaded(((Portal) entityIn));
+        }
+    }
+    
+    @Inject(
+        method = "finishRemovingEntity",
+        at = @At("HEAD")
+    )
+    private void onFinishRemovingEntity(Entity entity, CallbackInfo ci) {
+        if (entity instanceof Portal) {
+            PortalSpatialIndex.onPortalUnloaded(((Portal) entity));
+        }
     }
     
     /**
@@ -21,6 +21,7 @@ public class MixinDebugHud {
     private void onGetRightText(CallbackInfoReturnable<List<String>> cir) {
         List<String> returnValue = cir.getReturnValue();
         returnValue.add("Rendered Portals: " + RenderStates.lastPortalRenderInfos.size());
+        returnValue.add(String.format("Portal Render Cost: %.2f", RenderStates.lastPortalPlanCost));
         
         ClientPlayerEntity player = MinecraftClient.getInstance().player;
         if (player != null) {
@@ -12,8 +12,6 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 @Mixin(ChunkBuilder.BuiltChunk.class)
 public abstract class MixinBuiltChunk implements IEBuiltChunk {
     
-    private long portal_mark;
-    
     @Inject(
         method = "needsImportantRebuild",
         at = @At("HEAD"),
@@ -32,14 +30,4 @@ public abstract class MixinBuiltChunk implements IEBuiltChunk {
     public void fullyReset() {
         clear();
     }
-    
-    @Override
-    public long getMark() {
-        return portal_mark;
-    }
-    
-    @Override
-    public void setMark(long arg) {
-        portal_mark = arg;
-    }
 }
@@ -0,0 +1,26 @@
+package com.qouteall.immersive_portals.mixin.client.sync;
+
+import com.qouteall.immersive_portals.ducks.IECustomPayloadS2CPacket;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.packet.s2c.play.CustomPayloadS2CPacket;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.util.function.Consumer;
+
+@Mixin(CustomPayloadS2CPacket.class)
+public class MixinCustomPayloadS2CPacket_C {
+    // in singleplayer the packet object is passed directly without being written
+    @Inject(method = "getData", at = @At("HEAD"), cancellable = true)
+    private void onGetData(CallbackInfoReturnable<PacketByteBuf> cir) {
+        Consumer<PacketByteBuf> lazyPayload = ((IECustomPayloadS2CPacket) this).getLazyPayload();
+        if (lazyPayload != null) {
+            PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+            lazyPayload.accept(buf);
+            cir.setReturnValue(buf);
+        }
+    }
+}
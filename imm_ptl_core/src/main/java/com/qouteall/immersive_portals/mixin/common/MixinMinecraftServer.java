@@ -4,8 +4,10 @@ import com.mojang.authlib.GameProfileRepository;
 import com.mojang.authlib.minecraft.MinecraftSessionService;
 import com.mojang.datafixers.DataFixer;
 import com.qouteall.hiding_in_the_bushes.O_O;
+import com.qouteall.immersive_portals.Global;
 import com.qouteall.immersive_portals.McHelper;
 import com.qouteall.immersive_portals.ModMain;
+import com.qouteall.immersive_portals.chunk_loading.EntitySync;
 import com.qouteall.immersive_portals.chunk_loading.NewChunkTrackingGraph;
 import com.qouteall.immersive_portals.dimension_sync.DimensionIdManagement;
 import com.qouteall.immersive_portals.ducks.IEMinecraftServer;
@@ -68,6 +70,8 @@ public class MixinMinecraftServer implements IEMinecraftServer {
     )
     private void onServerClose(CallbackInfo ci) {
         NewChunkTrackingGraph.cleanup();
+        EntitySync.cleanup();
+        Global.chunkDataSyncManager.cleanup();
         ModMain.serverTaskList.forceClearTasks();
     }
     
@@ -2,8 +2,11 @@ package com.qouteall.immersive_portals.mixin.common;
 
 import com.qouteall.immersive_portals.chunk_loading.NewChunkTrackingGraph;
 import com.qouteall.immersive_portals.ducks.IEServerWorld;
+import com.qouteall.immersive_portals.portal.Portal;
+import com.qouteall.immersive_portals.portal.PortalSpatialIndex;
 import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import net.minecraft.entity.Entity;
 import net.minecraft.server.world.ServerChunkManager;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.world.PersistentStateManager;
@@ -14,6 +17,7 @@ import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import java.util.List;
@@ -68,6 +72,20 @@ public abstract class MixinServerWorld implements IEServerWorld {
         return list.isEmpty();
     }
     
+    @Inject(method = "loadEntityUnchecked", at = @At("TAIL"))
+    private void onLoadEntityUnchecked(Entity entity, CallbackInfo ci) {
+        if (entity instanceof Portal) {
+            PortalSpatialIndex.onPortalLoaded(((Portal) entity));
+        }
+    }
+    
+    @Inject(method = "unloadEntity", at = @At("HEAD"))
+    private void onUnloadEntity(Entity entity, CallbackInfo ci) {
+        if (entity instanceof Portal) {
+            PortalSpatialIndex.onPortalUnloaded(((Portal) entity));
+        }
+    }
+    
     // for debug
     @Inject(method = "toString", at = @At("HEAD"), cancellable = true)
     private void onToString(CallbackInfoReturnable<String> cir) {
@@ -1,6 +1,7 @@
 package com.qouteall.immersive_portals.mixin.common;
 
 import com.qouteall.immersive_portals.ducks.IEWorld;
+import com.qouteall.immersive_portals.portal.PortalSpatialIndex;
 import net.minecraft.util.registry.RegistryKey;
 import net.minecraft.world.MutableWorldProperties;
 import net.minecraft.world.World;
@@ -33,6 +34,8 @@ public abstract class MixinWorld implements IEWorld {
     @Shadow
     protected float thunderGradientPrev;
     
+    private PortalSpatialIndex portalSpatialIndex;
+    
     // Fix overworld rain cause nether fog change
     @Inject(method = "initWeatherGradients", at = @At("TAIL"))
     private void onInitWeatherGradients(CallbackInfo ci) {
@@ -48,4 +51,12 @@ public abstract class MixinWorld implements IEWorld {
     public MutableWorldProperties myGetProperties() {
         return properties;
     }
+    
+    @Override
+    public PortalSpatialIndex getPortalSpatialIndex() {
+        if (portalSpatialIndex == null) {
+            portalSpatialIndex = new PortalSpatialIndex();
+        }
+        return portalSpatialIndex;
+    }
 }
@@ -1,5 +1,6 @@
 package com.qouteall.immersive_portals.mixin.common;
 
+import com.qouteall.immersive_portals.chunk_loading.EntitySync;
 import com.qouteall.immersive_portals.ducks.IEWorldChunk;
 import net.minecraft.entity.Entity;
 import net.minecraft.util.collection.TypeFilterableList;
@@ -7,6 +8,9 @@ import net.minecraft.world.chunk.WorldChunk;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 @Mixin(WorldChunk.class)
 public abstract class MixinWorldChunk implements IEWorldChunk {
@@ -18,4 +22,12 @@ public abstract class MixinWorldChunk implements IEWorldChunk {
     public TypeFilterableList<Entity>[] getEntitySections() {
         return entitySections;
     }
+    
+    // the entity is added into a chunk section when it moves into another section
+    @Inject(method = "addEntity", at = @At("RETURN"))
+    private void onAddEntity(Entity entity, CallbackInfo ci) {
+        if (!entity.world.isClient()) {
+            EntitySync.onEntitySectionChanged(entity);
+        }
+    }
 }
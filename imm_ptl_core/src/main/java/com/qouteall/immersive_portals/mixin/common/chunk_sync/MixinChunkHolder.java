@@ -1,6 +1,7 @@
 package com.qouteall.immersive_portals.mixin.common.chunk_sync;
 
 import com.qouteall.hiding_in_the_bushes.MyNetwork;
+import com.qouteall.immersive_portals.Global;
 import com.qouteall.immersive_portals.chunk_loading.NewChunkTrackingGraph;
 import com.qouteall.immersive_portals.ducks.IEChunkHolder;
 import com.qouteall.immersive_portals.ducks.IEThreadedAnvilChunkStorage;
@@ -14,6 +15,9 @@ import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Overwrite;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import java.util.function.Consumer;
 
@@ -56,4 +60,21 @@ public class MixinChunkHolder implements IEChunkHolder {
         
     }
     
+    // invalidate the cached chunk packets
+    @Inject(method = "markForBlockUpdate", at = @At("HEAD"))
+    private void onMarkForBlockUpdate(CallbackInfo ci) {
+        onChunkChanged();
+    }
+    
+    @Inject(method = "markForLightUpdate", at = @At("HEAD"))
+    private void onMarkForLightUpdate(CallbackInfo ci) {
+        onChunkChanged();
+    }
+    
+    private void onChunkChanged() {
+        RegistryKey<World> dimension =
+            ((IEThreadedAnvilChunkStorage) playersWatchingChunkProvider).getWorld().getRegistryKey();
+        Global.chunkDataSyncManager.onChunkChanged(dimension, pos.toLong());
+    }
+    
 }
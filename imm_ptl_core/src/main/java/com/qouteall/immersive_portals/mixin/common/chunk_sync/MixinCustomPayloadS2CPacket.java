@@ -0,0 +1,55 @@
+package com.qouteall.immersive_portals.mixin.common.chunk_sync;
+
+import com.qouteall.hiding_in_the_bushes.MyNetwork;
+import com.qouteall.immersive_portals.ducks.IECustomPayloadS2CPacket;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.packet.s2c.play.CustomPayloadS2CPacket;
+import net.minecraft.util.Identifier;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import java.util.function.Consumer;
+
+// the redirected packets are not serialized into an intermediate buffer
+// they are written directly into the outbound buffer when being sent
+@Mixin(CustomPayloadS2CPacket.class)
+public class MixinCustomPayloadS2CPacket implements IECustomPayloadS2CPacket {
+    @Shadow
+    private Identifier channel;
+    
+    private Consumer<PacketByteBuf> lazyPayload;
+    
+    @Override
+    public void setLazyPayload(Consumer<PacketByteBuf> payloadWriter) {
+        lazyPayload = payloadWriter;
+    }
+    
+    @Override
+    public Consumer<PacketByteBuf> getLazyPayload() {
+        return lazyPayload;
+    }
+    
+    @Inject(method = "write", at = @At("HEAD"), cancellable = true)
+    private void onWrite(PacketByteBuf buf, CallbackInfo ci) {
+        if (lazyPayload != null) {
+            buf.writeIdentifier(channel);
+            int payloadStart = buf.writerIndex();
+            lazyPayload.accept(buf);
+            
+            // the constructor checks the size of normal payloads
+            // the lazy payload is only known now, fail on the server instead of on the client
+            int payloadSize = buf.writerIndex() - payloadStart;
+            if (payloadSize > MyNetwork.maxPayloadSize) {
+                throw new IllegalArgumentException(
+                    "Payload may not be larger than " + MyNetwork.maxPayloadSize +
+                        " bytes. " + channel + " " + payloadSize
+                );
+            }
+            
+            ci.cancel();
+        }
+    }
+}
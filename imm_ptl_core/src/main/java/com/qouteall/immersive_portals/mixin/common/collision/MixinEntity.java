@@ -174,6 +174,8 @@ public abstract class MixinEntity implements IEEntity {
     public void tickCollidingPortal(float tickDelta) {
         Entity this_ = (Entity) (Object) this;
         
+        CollisionHelper.notifyCollidingPortals(this_);
+        
         if (collidingPortal != null) {
             if (collidingPortal.world != world) {
                 collidingPortal = null;
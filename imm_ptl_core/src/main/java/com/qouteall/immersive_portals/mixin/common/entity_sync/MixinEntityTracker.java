@@ -1,6 +1,7 @@
 package com.qouteall.immersive_portals.mixin.common.entity_sync;
 
 import com.qouteall.hiding_in_the_bushes.MyNetwork;
+import com.qouteall.immersive_portals.Global;
 import com.qouteall.immersive_portals.McHelper;
 import com.qouteall.immersive_portals.chunk_loading.EntitySync;
 import com.qouteall.immersive_portals.chunk_loading.NewChunkTrackingGraph;
@@ -14,7 +15,6 @@ import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ChunkHolder;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.math.ChunkPos;
-import net.minecraft.util.math.ChunkSectionPos;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Overwrite;
@@ -38,8 +38,6 @@ public abstract class MixinEntityTracker implements IEEntityTracker {
     @Final
     private int maxDistance;
     @Shadow
-    private ChunkSectionPos lastCameraPosition;
-    @Shadow
     @Final
     private Set<ServerPlayerEntity> playersTracking;
     
@@ -120,6 +118,11 @@ public abstract class MixinEntityTracker implements IEEntityTracker {
                 this.entity.chunkX,
                 this.entity.chunkZ,
                 maxWatchDistance
+            ) && !Global.chunkDataSyncManager.isChunkQueued(
+                player,
+                this.entity.world.getRegistryKey(),
+                this.entity.chunkX,
+                this.entity.chunkZ
             ) && this.entity.canBeSpectated(player);
         if (isWatchedNow) {
             boolean shouldTrack = this.entity.teleporting;
@@ -175,14 +178,4 @@ public abstract class MixinEntityTracker implements IEEntityTracker {
     public void tickEntry() {
         entry.tick();
     }
-    
-    @Override
-    public ChunkSectionPos getLastCameraPosition() {
-        return lastCameraPosition;
-    }
-    
-    @Override
-    public void setLastCameraPosition(ChunkSectionPos arg) {
-        lastCameraPosition = arg;
-    }
 }
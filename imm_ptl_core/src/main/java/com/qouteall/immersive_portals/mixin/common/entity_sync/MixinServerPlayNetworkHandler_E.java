@@ -1,25 +1,34 @@
 package com.qouteall.immersive_portals.mixin.common.entity_sync;
 
-import com.qouteall.hiding_in_the_bushes.MyNetwork;
 import com.qouteall.immersive_portals.chunk_loading.EntitySync;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
 import net.minecraft.network.Packet;
 import net.minecraft.server.network.ServerPlayNetworkHandler;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
-import org.spongepowered.asm.mixin.injection.ModifyVariable;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 @Mixin(ServerPlayNetworkHandler.class)
 public class MixinServerPlayNetworkHandler_E {
-    @ModifyVariable(
+    @Inject(
         method = "sendPacket(Lnet/minecraft/network/Packet;Lio/netty/util/concurrent/GenericFutureListener;)V",
         at = @At("HEAD"),
-        argsOnly = true
+        cancellable = true
     )
-    private Packet modifyPacket(Packet originalPacket) {
+    private void onSendPacket(
+        Packet<?> packet,
+        GenericFutureListener<? extends Future<? super Void>> listener,
+        CallbackInfo ci
+    ) {
         if (EntitySync.getForceRedirectDimension() == null) {
-            return originalPacket;
+            return;
         }
         
-        return MyNetwork.createRedirectedMessage(EntitySync.getForceRedirectDimension(), originalPacket);
+        EntitySync.sendForceRedirectedPacket(
+            (ServerPlayNetworkHandler) (Object) this, packet, listener
+        );
+        ci.cancel();
     }
 }
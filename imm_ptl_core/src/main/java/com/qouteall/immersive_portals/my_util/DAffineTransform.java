@@ -0,0 +1,221 @@
+package com.qouteall.immersive_portals.my_util;
+
+import net.minecraft.util.math.Quaternion;
+import net.minecraft.util.math.Vec3d;
+
+/**
+ * The portal transformation in double and immutable
+ * p -> scale * rotation * (p - origin) + destination
+ * The point is subtracted by the origin before rotating
+ * so it does not lose precision at far coordinates.
+ * Minecraft's {@link net.minecraft.client.util.math.Vector3f} uses float
+ */
+public class DAffineTransform {
+    public static final DAffineTransform identity = new DAffineTransform(
+        1, 0, 0,
+        0, 1, 0,
+        0, 0, 1,
+        1,
+        0, 0, 0,
+        0, 0, 0
+    );
+    
+    // the rotation matrix without scaling
+    public final double r00, r01, r02;
+    public final double r10, r11, r12;
+    public final double r20, r21, r22;
+    public final double scale;
+    public final double originX, originY, originZ;
+    public final double destX, destY, destZ;
+    
+    public DAffineTransform(
+        double r00, double r01, double r02,
+        double r10, double r11, double r12,
+        double r20, double r21, double r22,
+        double scale,
+        double originX, double originY, double originZ,
+        double destX, double destY, double destZ
+    ) {
+        this.r00 = r00;
+        this.r01 = r01;
+        this.r02 = r02;
+        this.r10 = r10;
+        this.r11 = r11;
+        this.r12 = r12;
+        this.r20 = r20;
+        this.r21 = r21;
+        this.r22 = r22;
+        this.scale = scale;
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.destX = destX;
+        this.destY = destY;
+        this.destZ = destZ;
+    }
+    
+    /**
+     * @param rotation nullable. Same as rotating by {@link net.minecraft.client.util.math.Vector3f#rotate(Quaternion)}
+     */
+    public static DAffineTransform create(
+        Vec3d origin, Quaternion rotation, double scale, Vec3d destination
+    ) {
+        if (rotation == null) {
+            return new DAffineTransform(
+                1, 0, 0,
+                0, 1, 0,
+                0, 0, 1,
+                scale,
+                origin.x, origin.y, origin.z,
+                destination.x, destination.y, destination.z
+            );
+        }
+        
+        double x = rotation.getX();
+        double y = rotation.getY();
+        double z = rotation.getZ();
+        double w = rotation.getW();
+        
+        // the matrix of q * v * conjugate(q)
+        // it's the same as the vanilla rotation even if the quaternion is not normalized
+        return new DAffineTransform(
+            w * w + x * x - y * y - z * z, 2 * (x * y - w * z), 2 * (x * z + w * y),
+            2 * (x * y + w * z), w * w - x * x + y * y - z * z, 2 * (y * z - w * x),
+            2 * (x * z - w * y), 2 * (y * z + w * x), w * w - x * x - y * y + z * z,
+            scale,
+            origin.x, origin.y, origin.z,
+            destination.x, destination.y, destination.z
+        );
+    }
+    
+    /**
+     * The reflection by the plane that goes through the point
+     * @param normal normalized
+     */
+    public static DAffineTransform createReflection(Vec3d planePos, Vec3d normal) {
+        double x = normal.x;
+        double y = normal.y;
+        double z = normal.z;
+        
+        // I - 2 * n * n^T
+        return new DAffineTransform(
+            1 - 2 * x * x, -2 * x * y, -2 * x * z,
+            -2 * y * x, 1 - 2 * y * y, -2 * y * z,
+            -2 * z * x, -2 * z * y, 1 - 2 * z * z,
+            1,
+            planePos.x, planePos.y, planePos.z,
+            planePos.x, planePos.y, planePos.z
+        );
+    }
+    
+    // writes the result into the array of length 3
+    public void rotateVec(double x, double y, double z, double[] result) {
+        result[0] = r00 * x + r01 * y + r02 * z;
+        result[1] = r10 * x + r11 * y + r12 * z;
+        result[2] = r20 * x + r21 * y + r22 * z;
+    }
+    
+    public void transformVec(double x, double y, double z, double[] result) {
+        rotateVec(x, y, z, result);
+        result[0] *= scale;
+        result[1] *= scale;
+        result[2] *= scale;
+    }
+    
+    public void transformPoint(double x, double y, double z, double[] result) {
+        transformVec(x - originX, y - originY, z - originZ, result);
+        result[0] += destX;
+        result[1] += destY;
+        result[2] += destZ;
+    }
+    
+    // transforms the point in the array in place
+    public void transformPoint(double[] point) {
+        transformPoint(point[0], point[1], point[2], point);
+    }
+    
+    public Vec3d rotateVec(Vec3d vec) {
+        return new Vec3d(
+            r00 * vec.x + r01 * vec.y + r02 * vec.z,
+            r10 * vec.x + r11 * vec.y + r12 * vec.z,
+            r20 * vec.x + r21 * vec.y + r22 * vec.z
+        );
+    }
+    
+    // the rotation (and reflection) matrix is orthogonal so the inverse is the transpose
+    public Vec3d inverseRotateVec(Vec3d vec) {
+        return new Vec3d(
+            r00 * vec.x + r10 * vec.y + r20 * vec.z,
+            r01 * vec.x + r11 * vec.y + r21 * vec.z,
+            r02 * vec.x + r12 * vec.y + r22 * vec.z
+        );
+    }
+    
+    public Vec3d transformVec(Vec3d vec) {
+        return new Vec3d(
+            (r00 * vec.x + r01 * vec.y + r02 * vec.z) * scale,
+            (r10 * vec.x + r11 * vec.y + r12 * vec.z) * scale,
+            (r20 * vec.x + r21 * vec.y + r22 * vec.z) * scale
+        );
+    }
+    
+    public Vec3d transformPoint(Vec3d point) {
+        double x = point.x - originX;
+        double y = point.y - originY;
+        double z = point.z - originZ;
+        return new Vec3d(
+            (r00 * x + r01 * y + r02 * z) * scale + destX,
+            (r10 * x + r11 * y + r12 * z) * scale + destY,
+            (r20 * x + r21 * y + r22 * z) * scale + destZ
+        );
+    }
+    
+    /**
+     * Applies this transformation and then the next.
+     * Used for nested portals.
+     * The origin stays and the destination of this is moved into the next
+     * so the far coordinates are not multiplied.
+     */
+    public DAffineTransform then(DAffineTransform next) {
+        double[] dest = new double[3];
+        next.transformPoint(destX, destY, destZ, dest);
+        return new DAffineTransform(
+            next.r00 * r00 + next.r01 * r10 + next.r02 * r20,
+            next.r00 * r01 + next.r01 * r11 + next.r02 * r21,
+            next.r00 * r02 + next.r01 * r12 + next.r02 * r22,
+            next.r10 * r00 + next.r11 * r10 + next.r12 * r20,
+            next.r10 * r01 + next.r11 * r11 + next.r12 * r21,
+            next.r10 * r02 + next.r11 * r12 + next.r12 * r22,
+            next.r20 * r00 + next.r21 * r10 + next.r22 * r20,
+            next.r20 * r01 + next.r21 * r11 + next.r22 * r21,
+            next.r20 * r02 + next.r21 * r12 + next.r22 * r22,
+            scale * next.scale,
+            originX, originY, originZ,
+            dest[0], dest[1], dest[2]
+        );
+    }
+    
+    // the 4x4 matrix in row major order
+    public void getMatrix(double[] result) {
+        double tx = destX - (r00 * originX + r01 * originY + r02 * originZ) * scale;
+        double ty = destY - (r10 * originX + r11 * originY + r12 * originZ) * scale;
+        double tz = destZ - (r20 * originX + r21 * originY + r22 * originZ) * scale;
+        
+        result[0] = r00 * scale;
+        result[1] = r01 * scale;
+        result[2] = r02 * scale;
+        result[3] = tx;
+        result[4] = r10 * scale;
+        result[5] = r11 * scale;
+        result[6] = r12 * scale;
+        result[7] = ty;
+        result[8] = r20 * scale;
+        result[9] = r21 * scale;
+        result[10] = r22 * scale;
+        result[11] = tz;
+        result[12] = 0;
+        result[13] = 0;
+        result[14] = 0;
+        result[15] = 1;
+    }
+}
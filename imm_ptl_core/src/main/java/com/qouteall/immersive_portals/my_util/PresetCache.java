@@ -0,0 +1,236 @@
+package com.qouteall.immersive_portals.my_util;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * The chunks are shared between presets and released when no preset uses them.
+ * The presets are evicted in least recently used order when
+ * there are too many presets or the chunks use too much memory.
+ * The recently used presets are kept because they may be used by portal rendering.
+ * It does not touch GL so it can work with fake chunks.
+ * {@link com.qouteall.immersive_portals.render.MyBuiltChunkStorage}
+ */
+public class PresetCache<T, P extends PresetCache.Preset<T>> {
+    public static class Preset<T> {
+        public final T[] data;
+        public long lastActiveTime;
+        
+        public Preset(T[] data) {
+            this.data = data;
+        }
+    }
+    
+    private final int maxPresetNum;
+    private final long memoryBudget;
+    private final long estimatedBytesPerChunk;
+    private final long presetKeepTime;
+    private final long presetExpireTime;
+    
+    // creates a chunk for the key
+    private final LongFunction<T> chunkFactory;
+    private final Consumer<T> chunkReleaser;
+    private final ToLongFunction<T> keyGetter;
+    private final LongSupplier timeSource;
+    
+    private final Long2ObjectOpenHashMap<T> chunkMap = new Long2ObjectOpenHashMap<>();
+    // the number of presets that use the chunk
+    private final Long2IntOpenHashMap chunkRefCount = new Long2IntOpenHashMap();
+    // from least recently used to most recently used
+    private final Long2ObjectLinkedOpenHashMap<P> presets = new Long2ObjectLinkedOpenHashMap<>();
+    @Nullable
+    private P currentPreset;
+    
+    private int hitNum = 0;
+    private int missNum = 0;
+    private int evictionNum = 0;
+    
+    public PresetCache(
+        int maxPresetNum,
+        long memoryBudget,
+        long estimatedBytesPerChunk,
+        long presetKeepTime,
+        long presetExpireTime,
+        LongFunction<T> chunkFactory,
+        Consumer<T> chunkReleaser,
+        ToLongFunction<T> keyGetter,
+        LongSupplier timeSource
+    ) {
+        this.maxPresetNum = maxPresetNum;
+        this.memoryBudget = memoryBudget;
+        this.estimatedBytesPerChunk = estimatedBytesPerChunk;
+        this.presetKeepTime = presetKeepTime;
+        this.presetExpireTime = presetExpireTime;
+        this.chunkFactory = chunkFactory;
+        this.chunkReleaser = chunkReleaser;
+        this.keyGetter = keyGetter;
+        this.timeSource = timeSource;
+    }
+    
+    public T provideChunk(long key) {
+        T result = chunkMap.get(key);
+        if (result == null) {
+            result = chunkFactory.apply(key);
+            chunkMap.put(key, result);
+        }
+        return result;
+    }
+    
+    // the preset creator should get its chunks from provideChunk
+    public P getPreset(long presetKey, Supplier<P> presetCreator) {
+        P preset = presets.getAndMoveToLast(presetKey);
+        if (preset == null) {
+            missNum++;
+            preset = presetCreator.get();
+            for (T chunk : preset.data) {
+                if (chunk != null) {
+                    chunkRefCount.addTo(keyGetter.applyAsLong(chunk), 1);
+                }
+            }
+            presets.putAndMoveToLast(presetKey, preset);
+        }
+        else {
+            hitNum++;
+        }
+        preset.lastActiveTime = timeSource.getAsLong();
+        currentPreset = preset;
+        return preset;
+    }
+    
+    public long getEstimatedBytes() {
+        return chunkMap.size() * estimatedBytesPerChunk;
+    }
+    
+    public boolean isOverBudget() {
+        if (presets.size() > maxPresetNum) {
+            return true;
+        }
+        
+        // always allow the current preset and the same amount for portal rendering
+        long budget = Math.max(
+            memoryBudget,
+            (currentPreset == null ? 0 : currentPreset.data.length) * estimatedBytesPerChunk * 2
+        );
+        return getEstimatedBytes() > budget;
+    }
+    
+    // evict at most one preset so that the cost is spread over time
+    public void evictOnePreset() {
+        if (presets.isEmpty() || !isOverBudget()) {
+            return;
+        }
+        
+        long leastRecentlyUsed = presets.firstLongKey();
+        P preset = presets.get(leastRecentlyUsed);
+        if (preset == currentPreset ||
+            timeSource.getAsLong() - preset.lastActiveTime < presetKeepTime
+        ) {
+            return;
+        }
+        
+        presets.removeFirst();
+        releasePreset(preset);
+        evictionNum++;
+    }
+    
+    // the chunks that are no longer used by any preset are released
+    private void releasePreset(P preset) {
+        for (T chunk : preset.data) {
+            if (chunk == null) {
+                continue;
+            }
+            long key = keyGetter.applyAsLong(chunk);
+            int refCount = chunkRefCount.addTo(key, -1) - 1;
+            if (refCount <= 0) {
+                chunkRefCount.remove(key);
+                T removed = chunkMap.remove(key);
+                if (removed != null) {
+                    chunkReleaser.accept(removed);
+                }
+            }
+        }
+    }
+    
+    public void purge() {
+        long currentTime = timeSource.getAsLong();
+        ObjectIterator<Long2ObjectMap.Entry<P>> presetIterator =
+            presets.long2ObjectEntrySet().fastIterator();
+        while (presetIterator.hasNext()) {
+            P preset = presetIterator.next().getValue();
+            if (preset != currentPreset &&
+                currentTime - preset.lastActiveTime > presetExpireTime
+            ) {
+                presetIterator.remove();
+                releasePreset(preset);
+            }
+        }
+        
+        // the chunks that are provided directly and not used by any preset
+        ObjectIterator<Long2ObjectMap.Entry<T>> chunkIterator =
+            chunkMap.long2ObjectEntrySet().fastIterator();
+        while (chunkIterator.hasNext()) {
+            Long2ObjectMap.Entry<T> entry = chunkIterator.next();
+            if (!chunkRefCount.containsKey(entry.getLongKey())) {
+                chunkReleaser.accept(entry.getValue());
+                chunkIterator.remove();
+            }
+        }
+    }
+    
+    // forget everything without releasing the chunks
+    public void clear() {
+        chunkMap.clear();
+        chunkRefCount.clear();
+        presets.clear();
+        currentPreset = null;
+    }
+    
+    public Set<T> getChunksInPresets() {
+        HashSet<T> result = new HashSet<>();
+        presets.values().forEach(preset -> {
+            for (T chunk : preset.data) {
+                if (chunk != null) {
+                    result.add(chunk);
+                }
+            }
+        });
+        return result;
+    }
+    
+    public Collection<T> getChunks() {
+        return chunkMap.values();
+    }
+    
+    public int getChunkNum() {
+        return chunkMap.size();
+    }
+    
+    public int getPresetNum() {
+        return presets.size();
+    }
+    
+    public int getHitNum() {
+        return hitNum;
+    }
+    
+    public int getMissNum() {
+        return missNum;
+    }
+    
+    public int getEvictionNum() {
+        return evictionNum;
+    }
+}
@@ -3,6 +3,7 @@ package com.qouteall.immersive_portals.portal;
 import com.qouteall.immersive_portals.Helper;
 import net.minecraft.nbt.DoubleTag;
 import net.minecraft.nbt.ListTag;
+import net.minecraft.util.math.MathHelper;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -74,6 +75,21 @@ public class GeometryPortalShape {
     
     public List<TriangleInPlane> triangles;
     
+    // a uniform grid over the bounding box of the triangles for point queries
+    // each cell has the triangles whose bounding box overlaps the cell
+    // the list is public so the grid is rebuilt when the list or its size changes
+    private static final int maxGridSize = 32;
+    private List<TriangleInPlane> gridTriangles;
+    private int gridTriangleNum;
+    private int gridSize;
+    private double gridMinX;
+    private double gridMinY;
+    private double gridMaxX;
+    private double gridMaxY;
+    private double cellWidth;
+    private double cellHeight;
+    private TriangleInPlane[][] cells;
+    
     public GeometryPortalShape() {
         triangles = new ArrayList<>();
     }
@@ -116,6 +132,78 @@ public class GeometryPortalShape {
         return tag;
     }
     
+    public boolean isPointInShape(double x, double y) {
+        if (gridTriangles != triangles || gridTriangleNum != triangles.size()) {
+            buildGrid();
+        }
+        
+        if (x < gridMinX || x > gridMaxX || y < gridMinY || y > gridMaxY) {
+            return false;
+        }
+        
+        TriangleInPlane[] cell = cells[getCellX(x) * gridSize + getCellY(y)];
+        for (TriangleInPlane triangle : cell) {
+            if (triangle.isPointInTriangle(x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private int getCellX(double x) {
+        return MathHelper.clamp((int) Math.floor((x - gridMinX) / cellWidth), 0, gridSize - 1);
+    }
+    
+    private int getCellY(double y) {
+        return MathHelper.clamp((int) Math.floor((y - gridMinY) / cellHeight), 0, gridSize - 1);
+    }
+    
+    private void buildGrid() {
+        gridTriangles = triangles;
+        gridTriangleNum = triangles.size();
+        
+        gridMinX = Double.POSITIVE_INFINITY;
+        gridMinY = Double.POSITIVE_INFINITY;
+        gridMaxX = Double.NEGATIVE_INFINITY;
+        gridMaxY = Double.NEGATIVE_INFINITY;
+        for (TriangleInPlane triangle : triangles) {
+            gridMinX = Math.min(gridMinX, Math.min(triangle.x1, Math.min(triangle.x2, triangle.x3)));
+            gridMinY = Math.min(gridMinY, Math.min(triangle.y1, Math.min(triangle.y2, triangle.y3)));
+            gridMaxX = Math.max(gridMaxX, Math.max(triangle.x1, Math.max(triangle.x2, triangle.x3)));
+            gridMaxY = Math.max(gridMaxY, Math.max(triangle.y1, Math.max(triangle.y2, triangle.y3)));
+        }
+        
+        // about one triangle per cell
+        gridSize = MathHelper.clamp(
+            (int) Math.ceil(Math.sqrt(triangles.size())), 1, maxGridSize
+        );
+        // avoid zero cell size for degenerate shapes
+        cellWidth = Math.max(gridMaxX - gridMinX, 1.0E-9) / gridSize;
+        cellHeight = Math.max(gridMaxY - gridMinY, 1.0E-9) / gridSize;
+        
+        List<List<TriangleInPlane>> cellLists = new ArrayList<>(gridSize * gridSize);
+        for (int i = 0; i < gridSize * gridSize; i++) {
+            cellLists.add(new ArrayList<>());
+        }
+        
+        for (TriangleInPlane triangle : triangles) {
+            int cellX1 = getCellX(Math.min(triangle.x1, Math.min(triangle.x2, triangle.x3)));
+            int cellY1 = getCellY(Math.min(triangle.y1, Math.min(triangle.y2, triangle.y3)));
+            int cellX2 = getCellX(Math.max(triangle.x1, Math.max(triangle.x2, triangle.x3)));
+            int cellY2 = getCellY(Math.max(triangle.y1, Math.max(triangle.y2, triangle.y3)));
+            for (int cellX = cellX1; cellX <= cellX2; cellX++) {
+                for (int cellY = cellY1; cellY <= cellY2; cellY++) {
+                    cellLists.get(cellX * gridSize + cellY).add(triangle);
+                }
+            }
+        }
+        
+        cells = new TriangleInPlane[gridSize * gridSize][];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = cellLists.get(i).toArray(new TriangleInPlane[0]);
+        }
+    }
+    
     public void addTriangleForRectangle(double x1, double y1, double x2, double y2) {
         triangles.add(new TriangleInPlane(
             x1, y1,
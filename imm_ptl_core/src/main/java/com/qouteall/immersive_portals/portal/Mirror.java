@@ -1,6 +1,7 @@
 package com.qouteall.immersive_portals.portal;
 
 import com.qouteall.immersive_portals.Global;
+import com.qouteall.immersive_portals.my_util.DAffineTransform;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityType;
 import net.minecraft.util.math.Vec3d;
@@ -29,9 +30,13 @@ public class Mirror extends Portal {
 //        return getNormal();
 //    }
     
+    // the reflection is a part of the transformation
+    // so transformPoint, transformLocalVec and untransformLocalVec all reflect
     @Override
-    public Vec3d transformLocalVecNonScale(Vec3d localVec) {
-        return getMirrored(super.transformLocalVecNonScale(localVec));
+    protected DAffineTransform createTransform() {
+        return super.createTransform().then(
+            DAffineTransform.createReflection(destination, getNormal())
+        );
     }
     
     @Override
@@ -43,9 +48,4 @@ public class Mirror extends Portal {
         double len = vec.dotProduct(getNormal());
         return vec.add(getNormal().multiply(len * -2));
     }
-    
-    @Override
-    public Vec3d untransformLocalVec(Vec3d localVec) {
-        return getMirrored(super.untransformLocalVec(localVec));
-    }
 }
@@ -6,10 +6,9 @@ import com.qouteall.immersive_portals.Helper;
 import com.qouteall.immersive_portals.McHelper;
 import com.qouteall.immersive_portals.PehkuiInterface;
 import com.qouteall.immersive_portals.dimension_sync.DimId;
+import com.qouteall.immersive_portals.my_util.DAffineTransform;
 import com.qouteall.immersive_portals.my_util.SignalArged;
 import com.qouteall.immersive_portals.portal.extension.PortalExtension;
-import com.qouteall.immersive_portals.teleportation.CollisionHelper;
-import net.minecraft.client.util.math.Vector3f;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityType;
 import net.minecraft.entity.MovementType;
@@ -82,6 +81,17 @@ public class Portal extends Entity {
     private Vec3d normal;
     private Vec3d contentDirection;
     
+    // destination, rotation and scaling are public fields so the cache is validated when used
+    private DAffineTransform transformCache;
+    private Vec3d transformCachePos;
+    private Vec3d transformCacheDestination;
+    private Quaternion transformCacheRotation;
+    private float transformCacheRotationX;
+    private float transformCacheRotationY;
+    private float transformCacheRotationZ;
+    private float transformCacheRotationW;
+    private double transformCacheScaling;
+    
     /**
      * For advanced frustum culling
      */
@@ -285,6 +295,8 @@ public class Portal extends Entity {
         exactBoundingBoxCache = null;
         normal = null;
         contentDirection = null;
+        // the mirror transformation depends on the normal
+        transformCache = null;
         getBoundingBox();
         getNormal();
         getContentDirection();
@@ -336,8 +348,6 @@ public class Portal extends Entity {
             serverPortalTickSignal.emit(this);
         }
         extension.tick(this);
-        
-        CollisionHelper.notifyCollidingPortals(this);
     }
     
     @Override
@@ -423,6 +433,7 @@ public class Portal extends Entity {
     public void reloadAndSyncToClient() {
         Validate.isTrue(!world.isClient());
         updateCache();
+        PortalSpatialIndex.onPortalChanged(this);
         McHelper.getIEStorage(this.world.getRegistryKey()).resendSpawnPacketToTrackers(this);
     }
     
@@ -590,41 +601,66 @@ public class Portal extends Entity {
         return pos.add(offset);
     }
     
-    public Vec3d transformPoint(Vec3d pos) {
-        Vec3d localPos = pos.subtract(getPos());
-        
-        Vec3d result = transformLocalVec(localPos).add(destination);
-        
-        return result;
-        
+    /**
+     * The transformation from this side to the destination side in double precision.
+     * It's rebuilt when the position, destination, rotation or scaling changes.
+     */
+    public final DAffineTransform getTransform() {
+        Vec3d pos = getPos();
+        if (transformCache == null ||
+            transformCachePos != pos ||
+            transformCacheDestination != destination ||
+            transformCacheScaling != scaling ||
+            !isTransformCacheRotationValid()
+        ) {
+            transformCache = createTransform();
+            transformCachePos = pos;
+            transformCacheDestination = destination;
+            transformCacheScaling = scaling;
+            transformCacheRotation = rotation;
+            if (rotation != null) {
+                transformCacheRotationX = rotation.getX();
+                transformCacheRotationY = rotation.getY();
+                transformCacheRotationZ = rotation.getZ();
+                transformCacheRotationW = rotation.getW();
+            }
+        }
+        return transformCache;
     }
     
-    public Vec3d transformLocalVecNonScale(Vec3d localVec) {
+    protected DAffineTransform createTransform() {
+        return DAffineTransform.create(getPos(), rotation, scaling, destination);
+    }
+    
+    // the quaternion is mutable
+    private boolean isTransformCacheRotationValid() {
+        if (transformCacheRotation != rotation) {
+            return false;
+        }
         if (rotation == null) {
-            return localVec;
+            return true;
         }
-        
-        Vector3f temp = new Vector3f(localVec);
-        temp.rotate(rotation);
-        
-        return new Vec3d(temp);
+        return rotation.getX() == transformCacheRotationX &&
+            rotation.getY() == transformCacheRotationY &&
+            rotation.getZ() == transformCacheRotationZ &&
+            rotation.getW() == transformCacheRotationW;
+    }
+    
+    public Vec3d transformPoint(Vec3d pos) {
+        return getTransform().transformPoint(pos);
+    }
+    
+    public Vec3d transformLocalVecNonScale(Vec3d localVec) {
+        return getTransform().rotateVec(localVec);
     }
     
     public Vec3d transformLocalVec(Vec3d localVec) {
-        return transformLocalVecNonScale(localVec).multiply(scaling);
+        return getTransform().transformVec(localVec);
     }
     
     @Deprecated
     public Vec3d untransformLocalVec(Vec3d localVec) {
-        if (rotation == null) {
-            return localVec;
-        }
-        
-        Vector3f temp = new Vector3f(localVec);
-        Quaternion r = rotation.copy();
-        r.conjugate();
-        temp.rotate(r);
-        return new Vec3d(temp);
+        return getTransform().inverseRotateVec(localVec);
     }
     
     @Deprecated
@@ -661,10 +697,7 @@ public class Portal extends Entity {
             Math.abs(yInPlane) < (height / 2 + 0.1);
         
         if (roughResult && specialShape != null) {
-            return specialShape.triangles.stream()
-                .anyMatch(triangle ->
-                    triangle.isPointInTriangle(xInPlane, yInPlane)
-                );
+            return specialShape.isPointInShape(xInPlane, yInPlane);
         }
         
         return roughResult;
@@ -705,9 +738,20 @@ public class Portal extends Entity {
     public double getDistanceToNearestPointInPortal(
         Vec3d point
     ) {
-        double distanceToPlane = getDistanceToPlane(point);
-        Vec3d posInPlane = point.add(getNormal().multiply(-distanceToPlane));
-        Vec3d localPos = posInPlane.subtract(getPos());
+        return getDistanceToNearestPointInPortal(
+            getPos(), getNormal(), axisW, axisH, width, height, point
+        );
+    }
+    
+    // also used with the copied portal state off-thread
+    public static double getDistanceToNearestPointInPortal(
+        Vec3d origin, Vec3d normal, Vec3d axisW, Vec3d axisH,
+        double width, double height,
+        Vec3d point
+    ) {
+        double distanceToPlane = point.subtract(origin).dotProduct(normal);
+        Vec3d posInPlane = point.add(normal.multiply(-distanceToPlane));
+        Vec3d localPos = posInPlane.subtract(origin);
         double localX = localPos.dotProduct(axisW);
         double localY = localPos.dotProduct(axisH);
         double distanceToRect = getDistanceToRectangle(
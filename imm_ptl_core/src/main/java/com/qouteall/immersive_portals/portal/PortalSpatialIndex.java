@@ -0,0 +1,434 @@
+package com.qouteall.immersive_portals.portal;
+
+import com.qouteall.immersive_portals.ducks.IEWorld;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.Box;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Indexes the loaded portals of a world by the chunk columns that their bounding boxes touch
+// Portal lookups don't need to scan the entity sections of every chunk in range
+// Works on both sides. Each world owns its index so the client thread
+// and the integrated server thread never share one.
+// Global portals are not in the world entity list so they are not indexed here
+public class PortalSpatialIndex {
+    // the portals that touch more columns than this are kept in a separate list
+    private static final int maxColumnsPerPortal = 64;
+    // avoid missing the columns because of floating point error
+    private static final double segmentMargin = 0.01;
+    
+    private static class Entry {
+        public final Portal portal;
+        public Box box;
+        public long[] columns;
+        public int queryMark = 0;
+        
+        public Entry(Portal portal) {
+            this.portal = portal;
+        }
+    }
+    
+    private final Long2ObjectOpenHashMap<ArrayList<Entry>> columnMap = new Long2ObjectOpenHashMap<>();
+    private final IdentityHashMap<Portal, Entry> entryMap = new IdentityHashMap<>();
+    private final ArrayList<Entry> hugePortals = new ArrayList<>();
+    private int currentQueryMark = 0;
+    // changes when a portal is added, removed, moved or reloaded
+    private int version = 0;
+    
+    public static void init() {
+        Portal.serverPortalTickSignal.connect(PortalSpatialIndex::onPortalTick);
+        Portal.clientPortalTickSignal.connect(PortalSpatialIndex::onPortalTick);
+    }
+    
+    public static PortalSpatialIndex get(World world) {
+        return ((IEWorld) world).getPortalSpatialIndex();
+    }
+    
+    // the portals are indexed when they are added into the world
+    // not when they tick so the portals in non-ticking chunks are also found
+    public static void onPortalLoaded(Portal portal) {
+        get(portal.world).update(portal);
+    }
+    
+    public static void onPortalUnloaded(Portal portal) {
+        get(portal.world).remove(portal);
+    }
+    
+    // the portal may move or change its shape
+    private static void onPortalTick(Portal portal) {
+        get(portal.world).update(portal);
+    }
+    
+    // the portal properties that don't affect the bounding box changed
+    public static void onPortalChanged(Portal portal) {
+        PortalSpatialIndex index = get(portal.world);
+        if (index.entryMap.containsKey(portal)) {
+            index.version++;
+        }
+    }
+    
+    public void update(Portal portal) {
+        if (portal.removed || !portal.isPortalValid()) {
+            remove(portal);
+            return;
+        }
+        
+        Box box = portal.getBoundingBox();
+        Entry entry = entryMap.get(portal);
+        if (entry != null) {
+            if (entry.box.equals(box)) {
+                return;
+            }
+            unlink(entry);
+        }
+        else {
+            entry = new Entry(portal);
+            entryMap.put(portal, entry);
+        }
+        
+        link(entry, box);
+    }
+    
+    public void remove(Portal portal) {
+        Entry entry = entryMap.remove(portal);
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+    
+    private void link(Entry entry, Box box) {
+        entry.box = box;
+        version++;
+        
+        int minX = ((int) Math.floor(box.minX)) >> 4;
+        int maxX = ((int) Math.floor(box.maxX)) >> 4;
+        int minZ = ((int) Math.floor(box.minZ)) >> 4;
+        int maxZ = ((int) Math.floor(box.maxZ)) >> 4;
+        
+        long columnNum = ((long) (maxX - minX + 1)) * (maxZ - minZ + 1);
+        if (columnNum > maxColumnsPerPortal) {
+            entry.columns = null;
+            hugePortals.add(entry);
+            return;
+        }
+        
+        long[] columns = new long[(int) columnNum];
+        int i = 0;
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                long column = ChunkPos.toLong(x, z);
+                columns[i] = column;
+                i++;
+                columnMap.computeIfAbsent(column, k -> new ArrayList<>()).add(entry);
+            }
+        }
+        entry.columns = columns;
+    }
+    
+    private void unlink(Entry entry) {
+        version++;
+        
+        if (entry.columns == null) {
+            hugePortals.remove(entry);
+            return;
+        }
+        
+        for (long column : entry.columns) {
+            ArrayList<Entry> list = columnMap.get(column);
+            if (list != null) {
+                list.remove(entry);
+                if (list.isEmpty()) {
+                    columnMap.remove(column);
+                }
+            }
+        }
+        entry.columns = null;
+    }
+    
+    // find the portals whose bounding box touches the chunk columns in range
+    public <T extends Entity> List<T> getPortalsInChunkRange(
+        Class<T> entityClass,
+        int chunkXStart, int chunkXEnd,
+        int chunkZStart, int chunkZEnd,
+        Predicate<T> predicate
+    ) {
+        return query(
+            entityClass,
+            chunkXStart, chunkXEnd, chunkZStart, chunkZEnd,
+            predicate
+        );
+    }
+    
+    public <T extends Entity> List<T> getPortalsInBox(
+        Class<T> entityClass,
+        Box box,
+        Predicate<T> predicate
+    ) {
+        return query(
+            entityClass,
+            ((int) Math.floor(box.minX)) >> 4,
+            ((int) Math.floor(box.maxX)) >> 4,
+            ((int) Math.floor(box.minZ)) >> 4,
+            ((int) Math.floor(box.maxZ)) >> 4,
+            e -> e.getBoundingBox().intersects(box) && predicate.test(e)
+        );
+    }
+    
+    // find the portals whose bounding box intersects the box of the segment
+    // only visits the chunk columns that the segment goes through
+    public List<Portal> getPortalsOnSegment(Vec3d start, Vec3d end) {
+        currentQueryMark++;
+        int mark = currentQueryMark;
+        
+        ArrayList<Portal> result = new ArrayList<>();
+        
+        Box segmentBox = new Box(start, end);
+        Predicate<Portal> predicate = portal -> portal.getBoundingBox().intersects(segmentBox);
+        
+        int minX = ((int) Math.floor(segmentBox.minX)) >> 4;
+        int maxX = ((int) Math.floor(segmentBox.maxX)) >> 4;
+        double dx = end.x - start.x;
+        double dz = end.z - start.z;
+        
+        for (int x = minX; x <= maxX; x++) {
+            // the z range of the segment inside this column of chunks
+            double lowZ = segmentBox.minZ;
+            double highZ = segmentBox.maxZ;
+            if (dx != 0) {
+                double t1 = ((x << 4) - start.x) / dx;
+                double t2 = ((x << 4) + 16 - start.x) / dx;
+                double tLow = Math.max(0, Math.min(t1, t2));
+                double tHigh = Math.min(1, Math.max(t1, t2));
+                double z1 = start.z + dz * tLow;
+                double z2 = start.z + dz * tHigh;
+                lowZ = Math.min(z1, z2) - segmentMargin;
+                highZ = Math.max(z1, z2) + segmentMargin;
+            }
+            
+            int minZ = ((int) Math.floor(lowZ)) >> 4;
+            int maxZ = ((int) Math.floor(highZ)) >> 4;
+            for (int z = minZ; z <= maxZ; z++) {
+                ArrayList<Entry> list = columnMap.get(ChunkPos.toLong(x, z));
+                if (list != null) {
+                    collect(list, mark, Portal.class, predicate, result);
+                }
+            }
+        }
+        
+        for (Entry entry : hugePortals) {
+            collect(entry, mark, Portal.class, predicate, result);
+        }
+        
+        return result;
+    }
+    
+    private <T extends Entity> List<T> query(
+        Class<T> entityClass,
+        int chunkXStart, int chunkXEnd,
+        int chunkZStart, int chunkZEnd,
+        Predicate<T> predicate
+    ) {
+        currentQueryMark++;
+        int mark = currentQueryMark;
+        
+        ArrayList<T> result = new ArrayList<>();
+        
+        long columnNum = ((long) (chunkXEnd - chunkXStart + 1)) * (chunkZEnd - chunkZStart + 1);
+        if (columnNum > columnMap.size()) {
+            // the range is larger than the indexed area, iterate the indexed columns instead
+            for (Long2ObjectMap.Entry<ArrayList<Entry>> mapEntry :
+                columnMap.long2ObjectEntrySet()) {
+                long column = mapEntry.getLongKey();
+                int x = ChunkPos.getPackedX(column);
+                int z = ChunkPos.getPackedZ(column);
+                if (x >= chunkXStart && x <= chunkXEnd && z >= chunkZStart && z <= chunkZEnd) {
+                    collect(mapEntry.getValue(), mark, entityClass, predicate, result);
+                }
+            }
+        }
+        else {
+            for (int x = chunkXStart; x <= chunkXEnd; x++) {
+                for (int z = chunkZStart; z <= chunkZEnd; z++) {
+                    ArrayList<Entry> list = columnMap.get(ChunkPos.toLong(x, z));
+                    if (list != null) {
+                        collect(list, mark, entityClass, predicate, result);
+                    }
+                }
+            }
+        }
+        
+        for (Entry entry : hugePortals) {
+            Box box = entry.box;
+            if (((int) Math.floor(box.maxX)) >> 4 >= chunkXStart &&
+                ((int) Math.floor(box.minX)) >> 4 <= chunkXEnd &&
+                ((int) Math.floor(box.maxZ)) >> 4 >= chunkZStart &&
+                ((int) Math.floor(box.minZ)) >> 4 <= chunkZEnd
+            ) {
+                collect(entry, mark, entityClass, predicate, result);
+            }
+        }
+        
+        return result;
+    }
+    
+    private static <T extends Entity> void collect(
+        List<Entry> entries,
+        int mark,
+        Class<T> entityClass,
+        Predicate<T> predicate,
+        List<T> result
+    ) {
+        for (Entry entry : entries) {
+            collect(entry, mark, entityClass, predicate, result);
+        }
+    }
+    
+    private static <T extends Entity> void collect(
+        Entry entry,
+        int mark,
+        Class<T> entityClass,
+        Predicate<T> predicate,
+        List<T> result
+    ) {
+        // a portal may be in multiple columns
+        if (entry.queryMark == mark) {
+            return;
+        }
+        entry.queryMark = mark;
+        
+        Portal portal = entry.portal;
+        if (portal.removed || !entityClass.isInstance(portal)) {
+            return;
+        }
+        
+        T casted = entityClass.cast(portal);
+        if (predicate.test(casted)) {
+            result.add(casted);
+        }
+    }
+    
+    public void foreachPortal(Consumer<Portal> func) {
+        entryMap.keySet().forEach(func);
+    }
+    
+    public int getPortalNum() {
+        return entryMap.size();
+    }
+    
+    /**
+     * Copy the indexed portals into an immutable snapshot that can be queried off-thread.
+     * The copier runs on the current thread and should only copy immutable state.
+     */
+    public <S> Snapshot<S> createSnapshot(Function<Portal, S> copier) {
+        Long2ObjectOpenHashMap<List<S>> snapshotColumnMap = new Long2ObjectOpenHashMap<>();
+        ArrayList<S> hugeSnapshots = new ArrayList<>();
+        ArrayList<Box> hugeBoxes = new ArrayList<>();
+        
+        for (Entry entry : entryMap.values()) {
+            if (entry.portal.removed) {
+                continue;
+            }
+            S copied = copier.apply(entry.portal);
+            if (entry.columns == null) {
+                hugeSnapshots.add(copied);
+                hugeBoxes.add(entry.box);
+                continue;
+            }
+            for (long column : entry.columns) {
+                snapshotColumnMap.computeIfAbsent(column, k -> new ArrayList<>()).add(copied);
+            }
+        }
+        
+        return new Snapshot<>(this, version, snapshotColumnMap, hugeSnapshots, hugeBoxes);
+    }
+    
+    public static class Snapshot<S> {
+        // only compared on the thread that owns the index
+        private final PortalSpatialIndex source;
+        private final int version;
+        
+        private final Long2ObjectOpenHashMap<List<S>> columnMap;
+        private final List<S> hugePortals;
+        private final List<Box> hugePortalBoxes;
+        
+        private Snapshot(
+            PortalSpatialIndex source, int version,
+            Long2ObjectOpenHashMap<List<S>> columnMap,
+            List<S> hugePortals, List<Box> hugePortalBoxes
+        ) {
+            this.source = source;
+            this.version = version;
+            this.columnMap = columnMap;
+            this.hugePortals = hugePortals;
+            this.hugePortalBoxes = hugePortalBoxes;
+        }
+        
+        public boolean isUpToDate(PortalSpatialIndex index) {
+            return source == index && version == index.version;
+        }
+        
+        // the same as getPortalsInChunkRange
+        public List<S> getPortalsInChunkRange(
+            int chunkXStart, int chunkXEnd,
+            int chunkZStart, int chunkZEnd
+        ) {
+            ArrayList<S> result = new ArrayList<>();
+            // a portal may be in multiple columns
+            ReferenceOpenHashSet<S> added = new ReferenceOpenHashSet<>();
+            
+            long columnNum = ((long) (chunkXEnd - chunkXStart + 1)) * (chunkZEnd - chunkZStart + 1);
+            if (columnNum > columnMap.size()) {
+                for (Long2ObjectMap.Entry<List<S>> mapEntry : columnMap.long2ObjectEntrySet()) {
+                    long column = mapEntry.getLongKey();
+                    int x = ChunkPos.getPackedX(column);
+                    int z = ChunkPos.getPackedZ(column);
+                    if (x >= chunkXStart && x <= chunkXEnd && z >= chunkZStart && z <= chunkZEnd) {
+                        for (S portal : mapEntry.getValue()) {
+                            if (added.add(portal)) {
+                                result.add(portal);
+                            }
+                        }
+                    }
+                }
+            }
+            else {
+                for (int x = chunkXStart; x <= chunkXEnd; x++) {
+                    for (int z = chunkZStart; z <= chunkZEnd; z++) {
+                        List<S> list = columnMap.get(ChunkPos.toLong(x, z));
+                        if (list != null) {
+                            for (S portal : list) {
+                                if (added.add(portal)) {
+                                    result.add(portal);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            
+            for (int i = 0; i < hugePortals.size(); i++) {
+                Box box = hugePortalBoxes.get(i);
+                if (((int) Math.floor(box.maxX)) >> 4 >= chunkXStart &&
+                    ((int) Math.floor(box.minX)) >> 4 <= chunkXEnd &&
+                    ((int) Math.floor(box.maxZ)) >> 4 >= chunkZStart &&
+                    ((int) Math.floor(box.minZ)) >> 4 <= chunkZEnd
+                ) {
+                    result.add(hugePortals.get(i));
+                }
+            }
+            
+            return result;
+        }
+    }
+}
@@ -7,7 +7,6 @@ import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.ChunkRegion;
 
-import java.util.List;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -20,35 +19,37 @@ public abstract class AbstractDiligentForm extends NetherPortalLikeForm {
     public Function<ChunkRegion, Function<BlockPos.Mutable, PortalGenInfo>> getFrameMatchingFunc(
         ServerWorld fromWorld, ServerWorld toWorld, BlockPortalShape fromShape
     ) {
-        List<DiligentMatcher.TransformedShape> matchableShapeVariants =
-            DiligentMatcher.getMatchableShapeVariants(fromShape, 20);
+        DiligentMatcher.ShapeVariantLibrary variantLibrary =
+            DiligentMatcher.getVariantLibrary(fromShape, 20);
         
         Predicate<BlockState> areaPredicate = getAreaPredicate();
         Predicate<BlockState> otherSideFramePredicate = getOtherSideFramePredicate();
         BlockPos.Mutable temp2 = new BlockPos.Mutable();
-        return (region) -> (blockPos) -> {
-            for (DiligentMatcher.TransformedShape matchableShapeVariant : matchableShapeVariants) {
-                BlockPortalShape template = matchableShapeVariant.transformedShape;
-                BlockPortalShape matched = template.matchShapeWithMovedFirstFramePos(
-                    pos -> areaPredicate.test(region.getBlockState(pos)),
-                    pos -> otherSideFramePredicate.test(region.getBlockState(pos)),
-                    blockPos,
-                    temp2
-                );
-                if (matched != null) {
-                    if (fromWorld != toWorld || !fromShape.anchor.equals(matched.anchor)) {
-                        return new PortalGenInfo(
-                            fromWorld.getRegistryKey(),
-                            toWorld.getRegistryKey(),
-                            fromShape, matched,
-                            matchableShapeVariant.rotation.toQuaternion(),
-                            matchableShapeVariant.scale
-                        );
+        byte[] probeBuffer = variantLibrary.createProbeBuffer();
+        return (region) -> {
+            Predicate<BlockPos> isAir = pos -> areaPredicate.test(region.getBlockState(pos));
+            Predicate<BlockPos> isFrame = pos -> otherSideFramePredicate.test(region.getBlockState(pos));
+            return (blockPos) -> variantLibrary.matchAll(
+                blockPos, isFrame, probeBuffer, temp2,
+                matchableShapeVariant -> {
+                    BlockPortalShape template = matchableShapeVariant.transformedShape;
+                    BlockPortalShape matched = template.matchShapeWithMovedFirstFramePos(
+                        isAir, isFrame, blockPos, temp2
+                    );
+                    if (matched != null) {
+                        if (fromWorld != toWorld || !fromShape.anchor.equals(matched.anchor)) {
+                            return new PortalGenInfo(
+                                fromWorld.getRegistryKey(),
+                                toWorld.getRegistryKey(),
+                                fromShape, matched,
+                                matchableShapeVariant.rotation.toQuaternion(),
+                                matchableShapeVariant.scale
+                            );
+                        }
                     }
+                    return null;
                 }
-            }
-            
-            return null;
+            );
         };
     }
 }
@@ -16,15 +16,21 @@ import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.math.Vec3i;
 import org.apache.commons.lang3.Validate;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 public class DiligentMatcher {
     public static class IntMatrix3 {
@@ -263,12 +269,200 @@ public class DiligentMatcher {
         }
     }
     
+    // BlockPortalShape does not override equals
+    // the frame is determined by the area and the axis
+    private static class ShapeKey {
+        public final Set<BlockPos> regularizedArea;
+        public final Direction.Axis axis;
+        public final int maxShapeLen;
+        
+        public ShapeKey(BlockPortalShape regularizedShape, int maxShapeLen) {
+            this.regularizedArea = regularizedShape.area;
+            this.axis = regularizedShape.axis;
+            this.maxShapeLen = maxShapeLen;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ShapeKey that = (ShapeKey) o;
+            return maxShapeLen == that.maxShapeLen &&
+                axis == that.axis &&
+                regularizedArea.equals(that.regularizedArea);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(regularizedArea, axis, maxShapeLen);
+        }
+    }
+    
+    // the variants only depend on the shape, not the position
+    // players usually build the same few shapes so the recently used ones are kept
+    private static final int maxCachedShapeNum = 32;
+    private static final Map<ShapeKey, ShapeVariantLibrary> variantLibraryCache =
+        new LinkedHashMap<ShapeKey, ShapeVariantLibrary>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ShapeKey, ShapeVariantLibrary> eldest) {
+                return size() > maxCachedShapeNum;
+            }
+        };
+    
+    public static ShapeVariantLibrary getVariantLibrary(
+        BlockPortalShape original,
+        int maxShapeLen
+    ) {
+        BlockPortalShape regularized = regularizeShape(original);
+        ShapeKey key = new ShapeKey(regularized, maxShapeLen);
+        synchronized (variantLibraryCache) {
+            ShapeVariantLibrary library = variantLibraryCache.get(key);
+            if (library == null) {
+                library = new ShapeVariantLibrary(
+                    computeMatchableShapeVariants(regularized, maxShapeLen)
+                );
+                variantLibraryCache.put(key, library);
+            }
+            return library;
+        }
+    }
+    
     public static List<TransformedShape> getMatchableShapeVariants(
         BlockPortalShape original,
         int maxShapeLen
     ) {
         List<TransformedShape> result = new ArrayList<>();
-        HashSet<BlockPortalShape> shapeSet = new HashSet<>();
+        for (TransformedShape variant : getVariantLibrary(original, maxShapeLen).variants) {
+            result.add(new TransformedShape(
+                original, variant.transformedShape, variant.rotation, variant.scale
+            ));
+        }
+        return result;
+    }
+    
+    /**
+     * Tests all shape variants against one frame position together.
+     * The frame blocks near firstFramePos of every variant are used as probes.
+     * The probe offsets are shared between variants
+     * so each nearby block is tested once for all variants,
+     * and only the variants whose probes all pass get the full matching.
+     */
+    public static class ShapeVariantLibrary {
+        // the number of probes of each variant
+        private static final int probeNumPerVariant = 4;
+        
+        public final List<TransformedShape> variants;
+        // distinct probe offsets relative to firstFramePos packed as x y z triples
+        private final int[] probeOffsets;
+        // the indices of the probes of each variant
+        private final int[][] variantProbes;
+        
+        public ShapeVariantLibrary(List<TransformedShape> variants) {
+            this.variants = variants;
+            
+            Map<BlockPos, Integer> probeIndices = new HashMap<>();
+            IntArrayList probeOffsetList = new IntArrayList();
+            variantProbes = new int[variants.size()][];
+            
+            for (int i = 0; i < variants.size(); i++) {
+                BlockPortalShape shape = variants.get(i).transformedShape;
+                BlockPos firstFramePos = shape.firstFramePos;
+                
+                // the nearest frame blocks are most likely to be shared by variants
+                List<BlockPos> frameOffsets = new ArrayList<>();
+                for (BlockPos framePos : shape.frameAreaWithoutCorner) {
+                    BlockPos offset = framePos.subtract(firstFramePos);
+                    if (!offset.equals(BlockPos.ORIGIN)) {
+                        frameOffsets.add(offset);
+                    }
+                }
+                frameOffsets.sort(
+                    Comparator.<BlockPos>comparingInt(
+                        b -> b.getX() * b.getX() + b.getY() * b.getY() + b.getZ() * b.getZ()
+                    ).thenComparingInt(Vec3i::getX)
+                        .thenComparingInt(Vec3i::getY)
+                        .thenComparingInt(Vec3i::getZ)
+                );
+                
+                int probeNum = Math.min(probeNumPerVariant, frameOffsets.size());
+                int[] probes = new int[probeNum];
+                for (int j = 0; j < probeNum; j++) {
+                    BlockPos offset = frameOffsets.get(j);
+                    Integer index = probeIndices.get(offset);
+                    if (index == null) {
+                        index = probeIndices.size();
+                        probeIndices.put(offset, index);
+                        probeOffsetList.add(offset.getX());
+                        probeOffsetList.add(offset.getY());
+                        probeOffsetList.add(offset.getZ());
+                    }
+                    probes[j] = index;
+                }
+                variantProbes[i] = probes;
+            }
+            
+            probeOffsets = probeOffsetList.toIntArray();
+        }
+        
+        // one buffer for each matching thread
+        public byte[] createProbeBuffer() {
+            return new byte[probeOffsets.length / 3];
+        }
+        
+        // return the first non-null result of the variants that may match in order
+        @Nullable
+        public <T> T matchAll(
+            BlockPos framePos,
+            Predicate<BlockPos> isFrame,
+            byte[] probeBuffer,
+            BlockPos.Mutable temp,
+            Function<TransformedShape, T> func
+        ) {
+            // 0 for not tested, 1 for frame, 2 for not frame
+            Arrays.fill(probeBuffer, (byte) 0);
+            
+            for (int i = 0; i < variants.size(); i++) {
+                if (testProbes(variantProbes[i], framePos, isFrame, probeBuffer, temp)) {
+                    T result = func.apply(variants.get(i));
+                    if (result != null) {
+                        return result;
+                    }
+                }
+            }
+            
+            return null;
+        }
+        
+        private boolean testProbes(
+            int[] probes,
+            BlockPos framePos,
+            Predicate<BlockPos> isFrame,
+            byte[] probeBuffer,
+            BlockPos.Mutable temp
+        ) {
+            for (int probe : probes) {
+                if (probeBuffer[probe] == 0) {
+                    temp.set(
+                        framePos.getX() + probeOffsets[probe * 3],
+                        framePos.getY() + probeOffsets[probe * 3 + 1],
+                        framePos.getZ() + probeOffsets[probe * 3 + 2]
+                    );
+                    probeBuffer[probe] = isFrame.test(temp) ? (byte) 1 : (byte) 2;
+                }
+                if (probeBuffer[probe] != 1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    private static List<TransformedShape> computeMatchableShapeVariants(
+        BlockPortalShape original,
+        int maxShapeLen
+    ) {
+        List<TransformedShape> result = new ArrayList<>();
+        HashSet<ShapeKey> shapeSet = new HashSet<>();
         
         int divFactor = getShapeShrinkFactor(original);
         
@@ -281,7 +475,7 @@ public class DiligentMatcher {
         for (IntMatrix3 rotation : rotationTransformations) {
             BlockPortalShape rotatedShape = rotateShape(shrinked, rotation);
             BlockPortalShape newShape = regularizeShape(rotatedShape);
-            boolean isNew = shapeSet.add(newShape);
+            boolean isNew = shapeSet.add(new ShapeKey(newShape, maxShapeLen));
             if (isNew) {
                 result.add(new TransformedShape(
                     original, newShape, rotation, 1.0 / divFactor
@@ -289,7 +483,7 @@ public class DiligentMatcher {
                 
                 for (int mul = 2; mul <= maxMultiplyFactor; mul++) {
                     BlockPortalShape expanded = regularizeShape(expandShape(rotatedShape, mul));
-                    isNew = shapeSet.add(expanded);
+                    isNew = shapeSet.add(new ShapeKey(expanded, maxShapeLen));
                     if (isNew) {
                         result.add(new TransformedShape(
                             original, expanded,
@@ -308,9 +502,10 @@ public class DiligentMatcher {
     }
     
     public static BlockPortalShape rotateShape(BlockPortalShape shape, IntMatrix3 t) {
-        Set<BlockPos> newArea = shape.area.stream().map(
-            b -> t.transform(b)
-        ).collect(Collectors.toSet());
+        Set<BlockPos> newArea = new HashSet<>();
+        for (BlockPos b : shape.area) {
+            newArea.add(t.transform(b));
+        }
         Direction.Axis newAxis = t.transformDirection(
             Direction.from(shape.axis, Direction.AxisDirection.POSITIVE)
         ).getAxis();
@@ -344,13 +539,14 @@ public class DiligentMatcher {
             return regularized;
         }
         
-        Set<BlockPos> newArea = regularized.area.stream().map(
-            b -> new BlockPos(
+        Set<BlockPos> newArea = new HashSet<>();
+        for (BlockPos b : regularized.area) {
+            newArea.add(new BlockPos(
                 Math.floorDiv(b.getX(), div),
                 Math.floorDiv(b.getY(), div),
                 Math.floorDiv(b.getZ(), div)
-            )
-        ).collect(Collectors.toSet());
+            ));
+        }
         
         return new BlockPortalShape(newArea, regularized.axis);
     }
@@ -375,17 +571,23 @@ public class DiligentMatcher {
         Vec3i v1 = Direction.from(axs.getLeft(), Direction.AxisDirection.POSITIVE).getVector();
         Vec3i v2 = Direction.from(axs.getRight(), Direction.AxisDirection.POSITIVE).getVector();
         
-        return new BlockPortalShape(
-            shape.area.stream().flatMap(
-                basePos -> IntStream.range(0, multiplyFactor).boxed().flatMap(dx ->
-                    IntStream.range(0, multiplyFactor).mapToObj(dy ->
-                        Helper.scale(basePos, multiplyFactor)
-                            .add(Helper.scale(v1, dx).add(Helper.scale(v2, dy)))
-                    )
-                )
-            ).collect(Collectors.toSet()),
-            shape.axis
-        );
+        Set<BlockPos> newArea = new HashSet<>();
+        for (BlockPos basePos : shape.area) {
+            int baseX = basePos.getX() * multiplyFactor;
+            int baseY = basePos.getY() * multiplyFactor;
+            int baseZ = basePos.getZ() * multiplyFactor;
+            for (int dx = 0; dx < multiplyFactor; dx++) {
+                for (int dy = 0; dy < multiplyFactor; dy++) {
+                    newArea.add(new BlockPos(
+                        baseX + v1.getX() * dx + v2.getX() * dy,
+                        baseY + v1.getY() * dx + v2.getY() * dy,
+                        baseZ + v1.getZ() * dx + v2.getZ() * dy
+                    ));
+                }
+            }
+        }
+        
+        return new BlockPortalShape(newArea, shape.axis);
     }
     
     private static IntBox splitBoxFromArea(
@@ -1,9 +1,12 @@
 package com.qouteall.immersive_portals.portal.global_portals;
 
-import com.google.common.base.Supplier;
-import com.google.common.collect.Streams;
-import com.qouteall.immersive_portals.McHelper;
+import com.qouteall.immersive_portals.Helper;
+import com.qouteall.immersive_portals.ModMain;
 import com.qouteall.immersive_portals.my_util.IntBox;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
@@ -11,18 +14,25 @@ import net.minecraft.text.LiteralText;
 import net.minecraft.text.Text;
 import net.minecraft.text.TranslatableText;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
 import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.WorldChunk;
 
 import java.util.List;
+import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.function.Consumer;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 public class BorderBarrierFiller {
     private static final WeakHashMap<ServerPlayerEntity, Object> warnedPlayers
         = new WeakHashMap<>();
     
+    // one tick is 50 ms, use 20 ms of it to leave time for the rest of the server tick
+    private static final long timeBudget = Helper.secondToNano(0.02);
+    
     public static void onCommandExecuted(
         ServerPlayerEntity player
     ) {
@@ -88,54 +98,132 @@ public class BorderBarrierFiller {
         }
     }
     
+    // the border is cleared section by section
+    // the blocks are written into the chunk section directly without neighbor updates
+    // the light updates and the block change packets are batched per section by vanilla
     private static void startFillingBorder(
         ServerWorld world,
         IntBox borderBox,
         Consumer<Text> informer
     ) {
-        Supplier<IntStream> xStream = () -> IntStream.range(
-            borderBox.l.getX(), borderBox.h.getX() + 1
-        );
-        Supplier<IntStream> zStream = () -> IntStream.range(
-            borderBox.l.getZ(), borderBox.h.getZ() + 1
-        );
-        BlockPos.Mutable temp = new BlockPos.Mutable();
-        BlockPos.Mutable temp1 = new BlockPos.Mutable();
-        Stream<BlockPos.Mutable> stream = Streams.concat(
-            xStream.get().mapToObj(x -> temp.set(x, 0, borderBox.l.getZ())),
-            xStream.get().mapToObj(x -> temp.set(x, 0, borderBox.h.getZ())),
-            zStream.get().mapToObj(z -> temp.set(borderBox.l.getX(), 0, z)),
-            zStream.get().mapToObj(z -> temp.set(borderBox.h.getX(), 0, z))
-        );
-        
-        BlockPos size = borderBox.getSize();
-        int totalColumns = size.getX() * 2 + size.getZ() * 2;
-        
-        McHelper.performSplittedFindingTaskOnServer(
-            stream,
-            pos -> {
-                for (int y = 0; y < 256; y++) {
-                    temp1.set(pos.getX(), y, pos.getZ());
-                    world.setBlockState(temp1, Blocks.AIR.getDefaultState());
+        Long2ObjectLinkedOpenHashMap<IntArrayList> chunkToColumns = getBorderColumns(borderBox);
+        
+        long[] chunkPositions = chunkToColumns.keySet().toLongArray();
+        int totalSections = chunkPositions.length * 16;
+        int[] progress = new int[1];
+        
+        ModMain.serverTaskList.addTask(() -> {
+            long startTime = System.nanoTime();
+            while (progress[0] < totalSections) {
+                long chunkPos = chunkPositions[progress[0] / 16];
+                int sectionY = progress[0] % 16;
+                fillSection(
+                    world,
+                    ChunkPos.getPackedX(chunkPos), ChunkPos.getPackedZ(chunkPos), sectionY,
+                    chunkToColumns.get(chunkPos)
+                );
+                progress[0]++;
+                
+                if (System.nanoTime() - startTime > timeBudget) {
+                    break;
                 }
-                return false;
-            },
-            columns -> {
-                double progress = ((double) columns) / totalColumns;
+            }
+            
+            if (progress[0] < totalSections) {
                 informer.accept(new LiteralText(
-                    Integer.toString((int) (progress * 100)) + "%"
+                    (progress[0] * 100 / totalSections) + "% " +
+                        progress[0] + "/" + totalSections
                 ));
-                return true;
-            },
-            e -> {
-                //nothing
-            },
-            () -> {
-                informer.accept(new TranslatableText("imm_ptl.finished"));
-            },
-            () -> {
+                return false;
+            }
             
+            informer.accept(new TranslatableText("imm_ptl.finished"));
+            return true;
+        });
+    }
+    
+    // the columns on the border grouped by chunk
+    // the column is stored as (localX << 4) | localZ
+    private static Long2ObjectLinkedOpenHashMap<IntArrayList> getBorderColumns(IntBox borderBox) {
+        Long2ObjectLinkedOpenHashMap<IntArrayList> result = new Long2ObjectLinkedOpenHashMap<>();
+        LongOpenHashSet addedColumns = new LongOpenHashSet();
+        
+        for (int x = borderBox.l.getX(); x <= borderBox.h.getX(); x++) {
+            addColumn(result, addedColumns, x, borderBox.l.getZ());
+            addColumn(result, addedColumns, x, borderBox.h.getZ());
+        }
+        for (int z = borderBox.l.getZ(); z <= borderBox.h.getZ(); z++) {
+            addColumn(result, addedColumns, borderBox.l.getX(), z);
+            addColumn(result, addedColumns, borderBox.h.getX(), z);
+        }
+        
+        return result;
+    }
+    
+    private static void addColumn(
+        Long2ObjectLinkedOpenHashMap<IntArrayList> result,
+        LongOpenHashSet addedColumns,
+        int x, int z
+    ) {
+        if (addedColumns.add(ChunkPos.toLong(x, z))) {
+            result.computeIfAbsent(
+                ChunkPos.toLong(x >> 4, z >> 4), k -> new IntArrayList()
+            ).add(((x & 15) << 4) | (z & 15));
+        }
+    }
+    
+    private static void fillSection(
+        ServerWorld world,
+        int chunkX, int chunkZ, int sectionY,
+        IntArrayList columns
+    ) {
+        WorldChunk chunk = world.getChunk(chunkX, chunkZ);
+        ChunkSection section = chunk.getSectionArray()[sectionY];
+        if (ChunkSection.isEmpty(section)) {
+            return;
+        }
+        
+        BlockState air = Blocks.AIR.getDefaultState();
+        BlockPos.Mutable temp = new BlockPos.Mutable();
+        boolean changed = false;
+        
+        for (int i = 0; i < columns.size(); i++) {
+            int column = columns.getInt(i);
+            int localX = column >> 4;
+            int localZ = column & 15;
+            for (int localY = 0; localY < 16; localY++) {
+                BlockState oldState = section.getBlockState(localX, localY, localZ);
+                if (oldState.isAir()) {
+                    continue;
+                }
+                
+                int y = (sectionY << 4) + localY;
+                temp.set((chunkX << 4) + localX, y, (chunkZ << 4) + localZ);
+                
+                if (oldState.getBlock().hasBlockEntity()) {
+                    world.removeBlockEntity(temp);
+                }
+                
+                section.setBlockState(localX, localY, localZ, air);
+                
+                for (Map.Entry<Heightmap.Type, Heightmap> entry : chunk.getHeightmaps()) {
+                    entry.getValue().trackUpdate(localX, y, localZ, air);
+                }
+                
+                world.onBlockChanged(temp, oldState, air);
+                world.getChunkManager().getLightingProvider().checkBlock(temp);
+                world.getChunkManager().markForUpdate(temp);
+                changed = true;
             }
-        );
+        }
+        
+        if (changed) {
+            if (section.isEmpty()) {
+                world.getChunkManager().getLightingProvider().setSectionStatus(
+                    ChunkSectionPos.from(chunkX, sectionY, chunkZ), true
+                );
+            }
+            chunk.setShouldSave(true);
+        }
     }
 }
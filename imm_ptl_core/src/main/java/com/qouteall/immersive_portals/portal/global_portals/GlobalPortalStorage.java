@@ -1,19 +1,23 @@
 package com.qouteall.immersive_portals.portal.global_portals;
 
 import com.qouteall.hiding_in_the_bushes.MyNetwork;
+import com.qouteall.hiding_in_the_bushes.MyNetworkClient;
 import com.qouteall.immersive_portals.CGlobal;
 import com.qouteall.immersive_portals.Helper;
 import com.qouteall.immersive_portals.McHelper;
 import com.qouteall.immersive_portals.ModMain;
 import com.qouteall.immersive_portals.chunk_loading.NewChunkTrackingGraph;
 import com.qouteall.immersive_portals.ducks.IEClientWorld;
+import com.qouteall.immersive_portals.teleportation.GlobalPortalPlaneIndex;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
+import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.world.ClientWorld;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityType;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.StringTag;
 import net.minecraft.network.Packet;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
@@ -26,14 +30,35 @@ import org.apache.commons.lang3.Validate;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
 
+// The global portals are synced to the client by versioned deltas.
+// Every sync bumps the sync version and sends the changed portals and removed portal ids
+// relative to the last synced state. A client that holds a different version
+// requests a full snapshot. Full snapshots are also sent when the player logs in.
 public class GlobalPortalStorage extends PersistentState {
     public List<GlobalTrackedPortal> data;
     public WeakReference<ServerWorld> world;
     private int version = 1;
     private boolean shouldReSync = false;
     
+    // not saved, the clients get a full snapshot after login
+    private int syncVersion = 0;
+    // the portal tags of the last sync, null if unknown
+    private Map<UUID, CompoundTag> syncedPortalTags = new HashMap<>();
+    // the broad phase of the global portal teleportation, rebuilt when the data changes
+    private GlobalPortalPlaneIndex planeIndex;
+    
+    @Environment(EnvType.CLIENT)
+    private static WeakHashMap<ClientWorld, Integer> clientSyncVersions;
+    
     public static void init() {
         ModMain.postServerTickSignal.connect(() -> {
             McHelper.getServer().getWorlds().forEach(world1 -> {
@@ -47,6 +72,7 @@ public class GlobalPortalStorage extends PersistentState {
         super(string_1);
         world = new WeakReference<>(world_);
         data = new ArrayList<>();
+        rebuildPlaneIndex();
     }
     
     public static void onPlayerLoggedIn(ServerPlayerEntity player) {
@@ -54,11 +80,7 @@ public class GlobalPortalStorage extends PersistentState {
             world -> {
                 GlobalPortalStorage storage = get(world);
                 if (!storage.data.isEmpty()) {
-                    player.networkHandler.sendPacket(
-                        MyNetwork.createGlobalPortalUpdate(
-                            storage
-                        )
-                    );
+                    storage.sendFullSync(player);
                 }
             }
         );
@@ -70,14 +92,73 @@ public class GlobalPortalStorage extends PersistentState {
         
         shouldReSync = true;
         
-        
+        rebuildPlaneIndex();
+    }
+    
+    // the index keeps its own list so that changing the data does not break it
+    private void rebuildPlaneIndex() {
+        planeIndex = new GlobalPortalPlaneIndex(new ArrayList<>(data));
+    }
+    
+    public GlobalPortalPlaneIndex getPlaneIndex() {
+        return planeIndex;
+    }
+    
+    public int getSyncVersion() {
+        return syncVersion;
+    }
+    
+    public void sendFullSync(ServerPlayerEntity player) {
+        player.networkHandler.sendPacket(MyNetwork.createGlobalPortalUpdate(this));
     }
     
     private void syncToAllPlayers() {
-        Packet packet = MyNetwork.createGlobalPortalUpdate(this);
-        McHelper.getCopiedPlayerList().forEach(
-            player -> player.networkHandler.sendPacket(packet)
-        );
+        Map<UUID, CompoundTag> currentTags = new LinkedHashMap<>();
+        for (GlobalTrackedPortal portal : data) {
+            currentTags.put(portal.getUuid(), writePortalToTag(portal));
+        }
+        
+        Packet packet;
+        if (syncedPortalTags == null) {
+            syncVersion++;
+            packet = MyNetwork.createGlobalPortalUpdate(this);
+        }
+        else {
+            ListTag updated = new ListTag();
+            currentTags.forEach((uuid, portalTag) -> {
+                if (!portalTag.equals(syncedPortalTags.get(uuid))) {
+                    updated.add(portalTag);
+                }
+            });
+            
+            ListTag removed = new ListTag();
+            for (UUID uuid : syncedPortalTags.keySet()) {
+                if (!currentTags.containsKey(uuid)) {
+                    removed.add(StringTag.of(uuid.toString()));
+                }
+            }
+            
+            if (updated.isEmpty() && removed.isEmpty()) {
+                packet = null;
+            }
+            else {
+                CompoundTag delta = new CompoundTag();
+                delta.putInt("baseVersion", syncVersion);
+                syncVersion++;
+                delta.putInt("version", syncVersion);
+                delta.put("updated", updated);
+                delta.put("removed", removed);
+                packet = MyNetwork.createGlobalPortalDelta(this, delta);
+            }
+        }
+        
+        syncedPortalTags = currentTags;
+        
+        if (packet != null) {
+            McHelper.getCopiedPlayerList().forEach(
+                player -> player.networkHandler.sendPacket(packet)
+            );
+        }
     }
     
     @Override
@@ -92,8 +173,11 @@ public class GlobalPortalStorage extends PersistentState {
         }
         
         data = newData;
+        syncedPortalTags = null;
         
         clearAbnormalPortals();
+        
+        rebuildPlaneIndex();
     }
     
     private static List<GlobalTrackedPortal> getPortalsFromTag(
@@ -145,13 +229,7 @@ public class GlobalPortalStorage extends PersistentState {
         
         for (GlobalTrackedPortal portal : data) {
             Validate.isTrue(portal.world == currWorld);
-            CompoundTag portalTag = new CompoundTag();
-            portal.toTag(portalTag);
-            portalTag.putString(
-                "entity_type",
-                EntityType.getId(portal.getType()).toString()
-            );
-            listTag.add(portalTag);
+            listTag.add(writePortalToTag(portal));
         }
         
         tag.put("data", listTag);
@@ -161,6 +239,16 @@ public class GlobalPortalStorage extends PersistentState {
         return tag;
     }
     
+    private static CompoundTag writePortalToTag(GlobalTrackedPortal portal) {
+        CompoundTag portalTag = new CompoundTag();
+        portal.toTag(portalTag);
+        portalTag.putString(
+            "entity_type",
+            EntityType.getId(portal.getType()).toString()
+        );
+        return portalTag;
+    }
+    
     public static GlobalPortalStorage get(
         ServerWorld world
     ) {
@@ -216,6 +304,88 @@ public class GlobalPortalStorage extends PersistentState {
         
         ((IEClientWorld) world).setGlobalPortals(newPortals);
         
+        getClientSyncVersions().put(world, compoundTag.getInt("syncVersion"));
+        
         Helper.log("Global Portals Updated " + dimension.getValue());
     }
+    
+    // the unchanged portals are kept, the changed portals are replaced at the same index
+    @Environment(EnvType.CLIENT)
+    public static void receiveGlobalPortalDelta(RegistryKey<World> dimension, CompoundTag delta) {
+        ClientWorld world = CGlobal.clientWorldLoader.getWorld(dimension);
+        
+        WeakHashMap<ClientWorld, Integer> syncVersions = getClientSyncVersions();
+        Integer clientVersion = syncVersions.get(world);
+        if (clientVersion == null || clientVersion != delta.getInt("baseVersion")) {
+            // -1 means a full snapshot is requested and not arrived yet
+            if (clientVersion == null || clientVersion != -1) {
+                Helper.log("Global portal sync version mismatch " + dimension.getValue());
+                syncVersions.put(world, -1);
+                MinecraftClient.getInstance().getNetworkHandler().sendPacket(
+                    MyNetworkClient.createCtsRequestGlobalPortalSync(dimension)
+                );
+            }
+            return;
+        }
+        
+        List<GlobalTrackedPortal> oldGlobalPortals = ((IEClientWorld) world).getGlobalPortals();
+        List<GlobalTrackedPortal> newPortals = oldGlobalPortals == null ?
+            new ArrayList<>() : new ArrayList<>(oldGlobalPortals);
+        
+        ListTag removed = delta.getList("removed", 8);
+        if (!removed.isEmpty()) {
+            Set<UUID> removedIds = new HashSet<>();
+            for (int i = 0; i < removed.size(); i++) {
+                removedIds.add(UUID.fromString(removed.getString(i)));
+            }
+            newPortals.removeIf(p -> {
+                if (removedIds.contains(p.getUuid())) {
+                    p.removed = true;
+                    return true;
+                }
+                return false;
+            });
+        }
+        
+        ListTag updated = delta.getList("updated", 10);
+        for (int i = 0; i < updated.size(); i++) {
+            CompoundTag portalTag = updated.getCompound(i);
+            GlobalTrackedPortal newPortal = readPortalFromTag(world, portalTag);
+            if (newPortal == null) {
+                Helper.err("error reading portal" + portalTag);
+                continue;
+            }
+            newPortal.removed = false;
+            
+            int index = indexOfPortal(newPortals, newPortal.getUuid());
+            if (index == -1) {
+                newPortals.add(newPortal);
+            }
+            else {
+                newPortals.get(index).removed = true;
+                newPortals.set(index, newPortal);
+            }
+        }
+        
+        ((IEClientWorld) world).setGlobalPortals(newPortals);
+        
+        syncVersions.put(world, delta.getInt("version"));
+    }
+    
+    private static int indexOfPortal(List<GlobalTrackedPortal> portals, UUID uuid) {
+        for (int i = 0; i < portals.size(); i++) {
+            if (portals.get(i).getUuid().equals(uuid)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    @Environment(EnvType.CLIENT)
+    private static WeakHashMap<ClientWorld, Integer> getClientSyncVersions() {
+        if (clientSyncVersions == null) {
+            clientSyncVersions = new WeakHashMap<>();
+        }
+        return clientSyncVersions;
+    }
 }
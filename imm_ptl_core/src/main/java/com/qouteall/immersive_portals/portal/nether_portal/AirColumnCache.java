@@ -0,0 +1,127 @@
+package com.qouteall.immersive_portals.portal.nether_portal;
+
+import com.qouteall.immersive_portals.my_util.IntBox;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.WorldAccess;
+
+// Caches the block columns that the portal placement searching visits.
+// Every block is read from the world at most once.
+// For each block it stores the length of the air run starting from it upward,
+// so a box is all air if the bottom block of every column in it has a long enough air run.
+// The columns are read lazily because the searching usually ends near the center.
+public class AirColumnCache {
+    private static class Column {
+        // the number of consecutive air blocks from this y upward, including itself
+        public final short[] airRunUp;
+        public final boolean[] isSolid;
+        
+        public Column(int height) {
+            airRunUp = new short[height];
+            isSolid = new boolean[height];
+        }
+    }
+    
+    private final WorldAccess world;
+    private final int height;
+    private final Long2ObjectOpenHashMap<Column> columns = new Long2ObjectOpenHashMap<>();
+    private final BlockPos.Mutable temp = new BlockPos.Mutable();
+    
+    public AirColumnCache(WorldAccess world) {
+        this.world = world;
+        this.height = world.getDimensionHeight();
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    private Column getColumn(int x, int z) {
+        long key = ChunkPos.toLong(x, z);
+        Column column = columns.get(key);
+        if (column == null) {
+            column = readColumn(x, z);
+            columns.put(key, column);
+        }
+        return column;
+    }
+    
+    private Column readColumn(int x, int z) {
+        Column column = new Column(height);
+        int airRun = 0;
+        for (int y = height - 1; y >= 0; y--) {
+            BlockState blockState = world.getBlockState(temp.set(x, y, z));
+            if (blockState.isAir()) {
+                airRun++;
+            }
+            else {
+                airRun = 0;
+            }
+            column.airRunUp[y] = (short) airRun;
+            column.isSolid[y] = NetherPortalMatcher.isSolidGroundBlock(blockState);
+        }
+        return column;
+    }
+    
+    private boolean isInHeightRange(int y) {
+        return y >= 0 && y < height;
+    }
+    
+    public boolean isAir(int x, int y, int z) {
+        if (!isInHeightRange(y)) {
+            return world.isAir(temp.set(x, y, z));
+        }
+        return getColumn(x, z).airRunUp[y] > 0;
+    }
+    
+    public boolean isAir(BlockPos pos) {
+        return isAir(pos.getX(), pos.getY(), pos.getZ());
+    }
+    
+    // does not contain lava water
+    public boolean isSolidGround(int x, int y, int z) {
+        if (!isInHeightRange(y)) {
+            return NetherPortalMatcher.isSolidGroundBlock(world.getBlockState(temp.set(x, y, z)));
+        }
+        return getColumn(x, z).isSolid[y];
+    }
+    
+    // includes lava water
+    public boolean isGround(int x, int y, int z) {
+        return !isAir(x, y, z);
+    }
+    
+    public boolean isAllAir(IntBox box) {
+        int lowY = box.l.getY();
+        int highY = box.h.getY();
+        if (!isInHeightRange(lowY) || !isInHeightRange(highY)) {
+            return NetherPortalMatcher.isAllAir(world, box);
+        }
+        
+        int neededAirRun = highY - lowY + 1;
+        
+        // test the corners first to fail fast
+        if (!isAirColumn(box.l.getX(), box.l.getZ(), lowY, neededAirRun) ||
+            !isAirColumn(box.h.getX(), box.h.getZ(), lowY, neededAirRun) ||
+            !isAirColumn(box.l.getX(), box.h.getZ(), lowY, neededAirRun) ||
+            !isAirColumn(box.h.getX(), box.l.getZ(), lowY, neededAirRun)
+        ) {
+            return false;
+        }
+        
+        for (int x = box.l.getX(); x <= box.h.getX(); x++) {
+            for (int z = box.l.getZ(); z <= box.h.getZ(); z++) {
+                if (!isAirColumn(x, z, lowY, neededAirRun)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    private boolean isAirColumn(int x, int z, int lowY, int neededAirRun) {
+        return getColumn(x, z).airRunUp[lowY] >= neededAirRun;
+    }
+}
@@ -11,17 +11,13 @@ import net.minecraft.util.Pair;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Direction;
 import net.minecraft.util.math.Vec3d;
-import net.minecraft.util.math.Vec3i;
 import org.apache.commons.lang3.Validate;
 
 import java.util.ArrayDeque;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class BlockPortalShape {
@@ -35,6 +31,13 @@ public class BlockPortalShape {
     
     public BlockPos firstFramePos;
     
+    // the positions relative to firstFramePos packed as x y z triples
+    // used for matching without creating block pos objects
+    // the first frame offset is firstFramePos itself
+    // computed with the frame so that the shapes shared between threads are not mutated
+    private int[] areaOffsets;
+    private int[] frameOffsets;
+    
     public BlockPortalShape(
         Set<BlockPos> area, Direction.Axis axis
     ) {
@@ -48,6 +51,30 @@ public class BlockPortalShape {
         calcAreaBox();
     }
     
+    // the moved shape does not need to calculate the frame again
+    private BlockPortalShape(BlockPortalShape shape, BlockPos offset) {
+        this.area = moveAll(shape.area, offset);
+        this.axis = shape.axis;
+        this.anchor = shape.anchor.add(offset);
+        this.frameAreaWithoutCorner = moveAll(shape.frameAreaWithoutCorner, offset);
+        this.frameAreaWithCorner = moveAll(shape.frameAreaWithCorner, offset);
+        this.firstFramePos = shape.firstFramePos.add(offset);
+        this.innerAreaBox = shape.innerAreaBox.getMoved(offset);
+        this.totalAreaBox = shape.totalAreaBox.getMoved(offset);
+        
+        // the offsets are relative so they can be shared
+        this.areaOffsets = shape.areaOffsets;
+        this.frameOffsets = shape.frameOffsets;
+    }
+    
+    private static Set<BlockPos> moveAll(Set<BlockPos> poses, BlockPos offset) {
+        HashSet<BlockPos> result = new HashSet<>(poses.size() * 2);
+        for (BlockPos pos : poses) {
+            result.add(pos.add(offset));
+        }
+        return result;
+    }
+    
     public BlockPortalShape(
         CompoundTag tag
     ) {
@@ -92,45 +119,59 @@ public class BlockPortalShape {
     }
     
     public void calcAnchor() {
-        anchor = area.stream()
-            .min(
-                Comparator.<BlockPos>comparingInt(
-                    Vec3i::getX
-                ).<BlockPos>thenComparingInt(
-                    Vec3i::getY
-                ).<BlockPos>thenComparingInt(
-                    Vec3i::getZ
-                )
-            ).get();
+        BlockPos result = null;
+        for (BlockPos blockPos : area) {
+            if (result == null || compareBlockPos(blockPos, result) < 0) {
+                result = blockPos;
+            }
+        }
+        anchor = result;
         
         Validate.notNull(anchor);
     }
     
+    private static int compareBlockPos(BlockPos a, BlockPos b) {
+        if (a.getX() != b.getX()) {
+            return Integer.compare(a.getX(), b.getX());
+        }
+        if (a.getY() != b.getY()) {
+            return Integer.compare(a.getY(), b.getY());
+        }
+        return Integer.compare(a.getZ(), b.getZ());
+    }
+    
     public void calcAreaBox() {
-        innerAreaBox = Helper.reduce(
-            new IntBox(anchor, anchor),
-            area.stream(),
-            IntBox::getExpanded
-        );
-        totalAreaBox = Helper.reduce(
-            new IntBox(anchor, anchor),
-            frameAreaWithoutCorner.stream(),
-            IntBox::getExpanded
-        );
+        innerAreaBox = getBoundingBox(area, anchor);
+        totalAreaBox = getBoundingBox(frameAreaWithoutCorner, anchor);
+    }
+    
+    private static IntBox getBoundingBox(Set<BlockPos> poses, BlockPos initial) {
+        int minX = initial.getX();
+        int minY = initial.getY();
+        int minZ = initial.getZ();
+        int maxX = minX;
+        int maxY = minY;
+        int maxZ = minZ;
+        for (BlockPos pos : poses) {
+            minX = Math.min(minX, pos.getX());
+            minY = Math.min(minY, pos.getY());
+            minZ = Math.min(minZ, pos.getZ());
+            maxX = Math.max(maxX, pos.getX());
+            maxY = Math.max(maxY, pos.getY());
+            maxZ = Math.max(maxZ, pos.getZ());
+        }
+        return new IntBox(new BlockPos(minX, minY, minZ), new BlockPos(maxX, maxY, maxZ));
     }
     
     public void calcFrameArea() {
         Direction[] directions = Helper.getAnotherFourDirections(axis);
-        frameAreaWithoutCorner = area.stream().flatMap(
-            blockPos -> Stream.of(
-                blockPos.add(directions[0].getVector()),
-                blockPos.add(directions[1].getVector()),
-                blockPos.add(directions[2].getVector()),
-                blockPos.add(directions[3].getVector())
-            )
-        ).filter(
-            blockPos -> !area.contains(blockPos)
-        ).collect(Collectors.toSet());
+        
+        BlockPos[] sideOffsets = {
+            new BlockPos(directions[0].getVector()),
+            new BlockPos(directions[1].getVector()),
+            new BlockPos(directions[2].getVector()),
+            new BlockPos(directions[3].getVector())
+        };
         
         BlockPos[] cornerOffsets = {
             new BlockPos(directions[0].getVector()).add(directions[1].getVector()),
@@ -139,19 +180,78 @@ public class BlockPortalShape {
             new BlockPos(directions[3].getVector()).add(directions[0].getVector())
         };
         
-        frameAreaWithCorner = area.stream().flatMap(
-            blockPos -> Stream.of(
-                blockPos.add(cornerOffsets[0]),
-                blockPos.add(cornerOffsets[1]),
-                blockPos.add(cornerOffsets[2]),
-                blockPos.add(cornerOffsets[3])
-            )
-        ).filter(
-            blockPos -> !area.contains(blockPos)
-        ).collect(Collectors.toSet());
+        frameAreaWithoutCorner = new HashSet<>();
+        frameAreaWithCorner = new HashSet<>();
+        BlockPos.Mutable temp = new BlockPos.Mutable();
+        for (BlockPos blockPos : area) {
+            for (BlockPos sideOffset : sideOffsets) {
+                temp.set(
+                    blockPos.getX() + sideOffset.getX(),
+                    blockPos.getY() + sideOffset.getY(),
+                    blockPos.getZ() + sideOffset.getZ()
+                );
+                if (!area.contains(temp)) {
+                    frameAreaWithoutCorner.add(temp.toImmutable());
+                }
+            }
+            for (BlockPos cornerOffset : cornerOffsets) {
+                temp.set(
+                    blockPos.getX() + cornerOffset.getX(),
+                    blockPos.getY() + cornerOffset.getY(),
+                    blockPos.getZ() + cornerOffset.getZ()
+                );
+                if (!area.contains(temp)) {
+                    frameAreaWithCorner.add(temp.toImmutable());
+                }
+            }
+        }
         frameAreaWithCorner.addAll(frameAreaWithoutCorner);
         
         firstFramePos = frameAreaWithoutCorner.iterator().next();
+        
+        initOffsets();
+    }
+    
+    private void initOffsets() {
+        int[] newAreaOffsets = new int[area.size() * 3];
+        int i = 0;
+        for (BlockPos pos : area) {
+            newAreaOffsets[i] = pos.getX() - firstFramePos.getX();
+            newAreaOffsets[i + 1] = pos.getY() - firstFramePos.getY();
+            newAreaOffsets[i + 2] = pos.getZ() - firstFramePos.getZ();
+            i += 3;
+        }
+        
+        int[] newFrameOffsets = new int[frameAreaWithoutCorner.size() * 3];
+        // firstFramePos is tested first
+        i = 3;
+        for (BlockPos pos : frameAreaWithoutCorner) {
+            if (!pos.equals(firstFramePos)) {
+                newFrameOffsets[i] = pos.getX() - firstFramePos.getX();
+                newFrameOffsets[i + 1] = pos.getY() - firstFramePos.getY();
+                newFrameOffsets[i + 2] = pos.getZ() - firstFramePos.getZ();
+                i += 3;
+            }
+        }
+        
+        areaOffsets = newAreaOffsets;
+        frameOffsets = newFrameOffsets;
+    }
+    
+    // test the positions relative to the base position
+    private static boolean allMatch(
+        int[] offsets,
+        int baseX, int baseY, int baseZ,
+        Predicate<BlockPos> predicate,
+        BlockPos.Mutable temp
+    ) {
+        for (int i = 0; i < offsets.length; i += 3) {
+            temp.set(baseX + offsets[i], baseY + offsets[i + 1], baseZ + offsets[i + 2]);
+            if (!predicate.test(temp)) {
+                return false;
+            }
+        }
+        return true;
     }
     
     //null for not found
@@ -291,73 +391,51 @@ public class BlockPortalShape {
             return null;
         }
         
-        boolean testFrame = testFrameWithoutCorner(isObsidian, newAnchor, temp);
+        int baseX = firstFramePos.getX() - anchor.getX() + newAnchor.getX();
+        int baseY = firstFramePos.getY() - anchor.getY() + newAnchor.getY();
+        int baseZ = firstFramePos.getZ() - anchor.getZ() + newAnchor.getZ();
         
-        if (!testFrame) {
+        if (!allMatch(frameOffsets, baseX, baseY, baseZ, isObsidian, temp)) {
             return null;
         }
         
-        boolean testAir = area.stream().map(
-            blockPos -> temp.set(
-                blockPos.getX() - anchor.getX() + newAnchor.getX(),
-                blockPos.getY() - anchor.getY() + newAnchor.getY(),
-                blockPos.getZ() - anchor.getZ() + newAnchor.getZ()
-            )
-            //blockPos.subtract(anchor).add(newAnchor)
-        ).allMatch(
-            isAir
-        );
-        
-        if (!testAir) {
+        if (!allMatch(areaOffsets, baseX, baseY, baseZ, isAir, temp)) {
             return null;
         }
         
         return getShapeWithMovedAnchor(newAnchor);
     }
     
-    private boolean testFrameWithoutCorner(
-        Predicate<BlockPos> isObsidian,
-        BlockPos newAnchor,
-        BlockPos.Mutable temp
-    ) {
-        Function<BlockPos, BlockPos.Mutable> mapper = blockPos -> temp.set(
-            blockPos.getX() - anchor.getX() + newAnchor.getX(),
-            blockPos.getY() - anchor.getY() + newAnchor.getY(),
-            blockPos.getZ() - anchor.getZ() + newAnchor.getZ()
-        );
-        
-        //does this have optimization effect?
-        if (!isObsidian.test(mapper.apply(firstFramePos))) {
-            return false;
-        }
-        
-        return frameAreaWithoutCorner.stream().map(mapper).allMatch(isObsidian);
-    }
-    
     public BlockPortalShape getShapeWithMovedAnchor(
         BlockPos newAnchor
     ) {
-        BlockPos offset = newAnchor.subtract(anchor);
-        return new BlockPortalShape(
-            area.stream().map(
-                blockPos -> blockPos.add(offset)
-            ).collect(Collectors.toSet()),
-            axis
-        );
+        return new BlockPortalShape(this, newAnchor.subtract(anchor));
     }
     
     public boolean isFrameIntact(
         Predicate<BlockPos> isObsidian
     ) {
-        return frameAreaWithoutCorner.stream().allMatch(isObsidian::test);
+        for (BlockPos blockPos : frameAreaWithoutCorner) {
+            if (!isObsidian.test(blockPos)) {
+                return false;
+            }
+        }
+        return true;
     }
     
     public boolean isPortalIntact(
         Predicate<BlockPos> isPortalBlock,
         Predicate<BlockPos> isObsidian
     ) {
-        return isFrameIntact(isObsidian) &&
-            area.stream().allMatch(isPortalBlock);
+        if (!isFrameIntact(isObsidian)) {
+            return false;
+        }
+        for (BlockPos blockPos : area) {
+            if (!isPortalBlock.test(blockPos)) {
+                return false;
+            }
+        }
+        return true;
     }
     
     public void initPortalPosAxisShape(Portal portal, boolean doInvert) {
@@ -430,33 +508,19 @@ public class BlockPortalShape {
         BlockPos newFirstObsidianPos,
         BlockPos.Mutable temp
     ) {
-        boolean testFrame = frameAreaWithoutCorner.stream().map(blockPos1 -> temp.set(
-            blockPos1.getX() - firstFramePos.getX() + newFirstObsidianPos.getX(),
-            blockPos1.getY() - firstFramePos.getY() + newFirstObsidianPos.getY(),
-            blockPos1.getZ() - firstFramePos.getZ() + newFirstObsidianPos.getZ()
-        )).allMatch(isObsidian);
+        int baseX = newFirstObsidianPos.getX();
+        int baseY = newFirstObsidianPos.getY();
+        int baseZ = newFirstObsidianPos.getZ();
         
-        if (!testFrame) {
+        if (!allMatch(frameOffsets, baseX, baseY, baseZ, isObsidian, temp)) {
             return null;
         }
         
-        boolean testAir = area.stream().map(blockPos -> temp.set(
-            blockPos.getX() - firstFramePos.getX() + newFirstObsidianPos.getX(),
-            blockPos.getY() - firstFramePos.getY() + newFirstObsidianPos.getY(),
-            blockPos.getZ() - firstFramePos.getZ() + newFirstObsidianPos.getZ()
-        )).allMatch(isAir);
-        
-        if (!testAir) {
+        if (!allMatch(areaOffsets, baseX, baseY, baseZ, isAir, temp)) {
             return null;
         }
         
-        BlockPos offset = newFirstObsidianPos.subtract(firstFramePos);
-        return new BlockPortalShape(
-            area.stream().map(
-                blockPos -> blockPos.add(offset)
-            ).collect(Collectors.toSet()),
-            axis
-        );
+        return new BlockPortalShape(this, newFirstObsidianPos.subtract(firstFramePos));
     }
     
     public static boolean isSquareShape(BlockPortalShape shape, int length) {
@@ -1,6 +1,7 @@
 package com.qouteall.immersive_portals.portal.nether_portal;
 
 import com.qouteall.immersive_portals.McHelper;
+import it.unimi.dsi.fastutil.objects.Reference2BooleanOpenHashMap;
 import net.minecraft.block.BlockState;
 import net.minecraft.util.Util;
 import net.minecraft.util.math.BlockPos;
@@ -57,6 +58,8 @@ public class FrameSearching {
     
     // Return null for not found
     // After removing the usage of stream API, it becomes 100 times faster!!!
+    // The sections whose palette contains no frame block are skipped.
+    // The frame predicate may not be thread safe so everything is done in this thread
     @Nullable
     public static <T> T searchPortalFrame(
         ChunkRegion region,
@@ -70,31 +73,48 @@ public class FrameSearching {
         );
         
         BlockPos.Mutable temp = new BlockPos.Mutable();
-        BlockPos.Mutable temp1 = new BlockPos.Mutable();
+        
+        // a section has only a few distinct states, cache the predicate results
+        Reference2BooleanOpenHashMap<BlockState> predicateCache =
+            new Reference2BooleanOpenHashMap<>();
         
         // avoid using stream api and maintain cache locality
         for (int chunkIndex = 0; chunkIndex < chunks.size(); chunkIndex++) {
             Chunk chunk = chunks.get(chunkIndex);
+            int startX = chunk.getPos().getStartX();
+            int startZ = chunk.getPos().getStartZ();
+            
             ChunkSection[] sectionArray = chunk.getSectionArray();
             for (int sectionY = 0; sectionY < sectionArray.length; sectionY++) {
                 ChunkSection chunkSection = sectionArray[sectionY];
-                if (chunkSection != null) {
-                    for (int localY = 0; localY < 16; localY++) {
-                        for (int localZ = 0; localZ < 16; localZ++) {
-                            for (int localX = 0; localX < 16; localX++) {
-                                BlockState blockState = chunkSection.getBlockState(
-                                    localX, localY, localZ
+                // the palette may contain the states that are no longer used
+                if (chunkSection == null || !chunkSection.hasAny(framePredicate)) {
+                    continue;
+                }
+                for (int localY = 0; localY < 16; localY++) {
+                    for (int localZ = 0; localZ < 16; localZ++) {
+                        for (int localX = 0; localX < 16; localX++) {
+                            BlockState blockState = chunkSection.getBlockState(
+                                localX, localY, localZ
+                            );
+                            boolean isFrame;
+                            if (predicateCache.containsKey(blockState)) {
+                                isFrame = predicateCache.getBoolean(blockState);
+                            }
+                            else {
+                                isFrame = framePredicate.test(blockState);
+                                predicateCache.put(blockState, isFrame);
+                            }
+                            if (isFrame) {
+                                temp.set(
+                                    localX + startX,
+                                    localY + sectionY * 16,
+                                    localZ + startZ
                                 );
-                                if (framePredicate.test(blockState)) {
-                                    int worldX = localX + chunk.getPos().getStartX();
-                                    int worldY = localY + sectionY * 16;
-                                    int worldZ = localZ + chunk.getPos().getStartZ();
-                                    temp.set(worldX, worldY, worldZ);
-    
-                                    T result = matchShape.apply(temp);
-                                    if (result != null) {
-                                        return result;
-                                    }
+                                
+                                T result = matchShape.apply(temp);
+                                if (result != null) {
+                                    return result;
                                 }
                             }
                         }
@@ -24,15 +24,16 @@ public class NetherPortalMatcher {
         BlockPos searchingCenter
     ) {
         int radius = 16;
+        AirColumnCache cache = new AirColumnCache(world);
         IntBox airCube = getAirCubeOnSolidGround(
-            areaSize, new BlockPos(6, 0, 6), world, searchingCenter,
+            areaSize, new BlockPos(6, 0, 6), cache, searchingCenter,
             radius, true
         );
         
         if (airCube == null) {
             Helper.log("Cannot Find Portal Placement on Ground with 3 Spacing");
             airCube = getAirCubeOnSolidGround(
-                areaSize, new BlockPos(2, 0, 2), world, searchingCenter,
+                areaSize, new BlockPos(2, 0, 2), cache, searchingCenter,
                 radius, true
             );
         }
@@ -40,7 +41,7 @@ public class NetherPortalMatcher {
         if (airCube == null) {
             Helper.log("Cannot Find Portal Placement on Ground with 1 Spacing");
             airCube = getAirCubeOnSolidGround(
-                areaSize, new BlockPos(6, 0, 6), world, searchingCenter,
+                areaSize, new BlockPos(6, 0, 6), cache, searchingCenter,
                 radius, false
             );
         }
@@ -53,12 +54,12 @@ public class NetherPortalMatcher {
         if (world.getBlockState(airCube.l.down()).getMaterial().isSolid()) {
             Helper.log("Generated Portal On Ground");
             
-            return pushDownBox(world, airCube.getSubBoxInCenter(areaSize));
+            return pushDownBox(cache, airCube.getSubBoxInCenter(areaSize));
         }
         else {
             Helper.log("Generated Portal On Non Solid Surface");
             
-            return levitateBox(world, airCube.getSubBoxInCenter(areaSize), 40);
+            return levitateBox(cache, airCube.getSubBoxInCenter(areaSize), 40);
         }
         
     }
@@ -75,24 +76,24 @@ public class NetherPortalMatcher {
     private static IntBox getAirCubeOnSolidGround(
         BlockPos areaSize,
         BlockPos ambientSpaceReserved,
-        WorldAccess world,
+        AirColumnCache cache,
         BlockPos searchingCenter,
         int findingRadius,
         boolean solidGround
     ) {
         Predicate<BlockPos> isAirOnGroundPredicate =
-            blockPos -> solidGround ? isAirOnSolidGround(world, blockPos) :
-                isAirOnGround(world, blockPos);
+            blockPos -> solidGround ? isAirOnSolidGround(cache, blockPos) :
+                isAirOnGround(cache, blockPos);
         
         return BlockTraverse.searchColumned(
             searchingCenter.getX(), searchingCenter.getZ(), findingRadius,
-            5, world.getDimensionHeight() - 5,
+            5, cache.getHeight() - 5,
             mutable -> {
                 if (isAirOnGroundPredicate.test(mutable)) {
                     IntBox box = IntBox.getBoxByBasePointAndSize(areaSize, mutable);
                     
                     IntBox expanded = expandFromBottomCenter(box, ambientSpaceReserved);
-                    if (isAirCubeMediumPlace(world, expanded)) {
+                    if (isAirCubeMediumPlace(cache, expanded)) {
                         if (solidGround) {
                             if (BlockTraverse.boxAllMatch(box.getSurfaceLayer(Direction.DOWN), isAirOnGroundPredicate)) {
                                 if (isAirOnGroundPredicate.test(expanded.l)) {
@@ -116,19 +117,20 @@ public class NetherPortalMatcher {
         WorldAccess world,
         BlockPos searchingCenter
     ) {
+        AirColumnCache cache = new AirColumnCache(world);
         IntBox result = findHorizontalPortalPlacementWithVerticalSpaceReserved(
-            areaSize, world, searchingCenter,
+            areaSize, cache, searchingCenter,
             30, 12
         );
         if (result == null) {
             result = findHorizontalPortalPlacementWithVerticalSpaceReserved(
-                areaSize, world, searchingCenter,
+                areaSize, cache, searchingCenter,
                 10, 12
             );
         }
         if (result == null) {
             result = findHorizontalPortalPlacementWithVerticalSpaceReserved(
-                areaSize, world, searchingCenter,
+                areaSize, cache, searchingCenter,
                 1, 12
             );
         }
@@ -137,7 +139,7 @@ public class NetherPortalMatcher {
     
     private static IntBox findHorizontalPortalPlacementWithVerticalSpaceReserved(
         BlockPos areaSize,
-        WorldAccess world,
+        AirColumnCache cache,
         BlockPos searchingCenter,
         int verticalSpaceReserve,
         int findingRadius
@@ -148,7 +150,7 @@ public class NetherPortalMatcher {
             areaSize.getZ()
         );
         IntBox foundCubeArea = findCubeAirAreaAtAnywhere(
-            growVertically, world, searchingCenter, findingRadius
+            growVertically, cache, searchingCenter, findingRadius
         );
         if (foundCubeArea == null) {
             return null;
@@ -166,14 +168,14 @@ public class NetherPortalMatcher {
         return !blockState.isAir();
     }
     
-    private static boolean isAirOnSolidGround(WorldAccess world, BlockPos blockPos) {
-        return world.isAir(blockPos) &&
-            isSolidGroundBlock(world.getBlockState(blockPos.add(0, -1, 0)));
+    private static boolean isAirOnSolidGround(AirColumnCache cache, BlockPos blockPos) {
+        return cache.isAir(blockPos) &&
+            cache.isSolidGround(blockPos.getX(), blockPos.getY() - 1, blockPos.getZ());
     }
     
-    private static boolean isAirOnGround(WorldAccess world, BlockPos blockPos) {
-        return world.isAir(blockPos) &&
-            isGroundBlock(world.getBlockState(blockPos.add(0, -1, 0)));
+    private static boolean isAirOnGround(AirColumnCache cache, BlockPos blockPos) {
+        return cache.isAir(blockPos) &&
+            cache.isGround(blockPos.getX(), blockPos.getY() - 1, blockPos.getZ());
     }
     
     static IntBox findCubeAirAreaAtAnywhere(
@@ -181,14 +183,25 @@ public class NetherPortalMatcher {
         WorldAccess world,
         BlockPos searchingCenter,
         int findingRadius
+    ) {
+        return findCubeAirAreaAtAnywhere(
+            areaSize, new AirColumnCache(world), searchingCenter, findingRadius
+        );
+    }
+    
+    private static IntBox findCubeAirAreaAtAnywhere(
+        BlockPos areaSize,
+        AirColumnCache cache,
+        BlockPos searchingCenter,
+        int findingRadius
     ) {
         return BlockTraverse.searchColumned(
             searchingCenter.getX(), searchingCenter.getZ(),
             findingRadius,
-            5, world.getDimensionHeight() - 5,
+            5, cache.getHeight() - 5,
             mutable -> {
                 IntBox box = IntBox.getBoxByBasePointAndSize(areaSize, mutable);
-                if (isAirCubeMediumPlace(world, box)) {
+                if (isAirCubeMediumPlace(cache, box)) {
                     return box;
                 }
                 else {
@@ -210,6 +223,18 @@ public class NetherPortalMatcher {
         return isAllAir(world, box);
     }
     
+    private static boolean isAirCubeMediumPlace(AirColumnCache cache, IntBox box) {
+        //the box out of height limit is not accepted
+        if (box.h.getY() + 5 >= cache.getHeight()) {
+            return false;
+        }
+        if (box.l.getY() - 5 <= 0) {
+            return false;
+        }
+        
+        return cache.isAllAir(box);
+    }
+    
     public static boolean isAllAir(WorldAccess world, IntBox box) {
         boolean roughTest = Arrays.stream(box.getEightVertices()).allMatch(
             blockPos -> isAir(world, blockPos)
@@ -226,11 +251,17 @@ public class NetherPortalMatcher {
     //move the box up
     public static IntBox levitateBox(
         WorldAccess world, IntBox airCube, int maxOffset
+    ) {
+        return levitateBox(new AirColumnCache(world), airCube, maxOffset);
+    }
+    
+    private static IntBox levitateBox(
+        AirColumnCache cache, IntBox airCube, int maxOffset
     ) {
         Integer maxUpShift = Helper.getLastSatisfying(
             IntStream.range(1, maxOffset * 3 / 2).boxed(),
             upShift -> isAirCubeMediumPlace(
-                world,
+                cache,
                 airCube.getMoved(new Vec3i(0, upShift, 0))
             )
         );
@@ -243,11 +274,17 @@ public class NetherPortalMatcher {
     
     public static IntBox pushDownBox(
         WorldAccess world, IntBox airCube
+    ) {
+        return pushDownBox(new AirColumnCache(world), airCube);
+    }
+    
+    private static IntBox pushDownBox(
+        AirColumnCache cache, IntBox airCube
     ) {
         Integer downShift = Helper.getLastSatisfying(
             IntStream.range(0, 40).boxed(),
             i -> isAirCubeMediumPlace(
-                world,
+                cache,
                 airCube.getMoved(new Vec3i(0, -i, 0))
             )
         );
@@ -3,8 +3,8 @@ package com.qouteall.immersive_portals.render;
 import com.qouteall.immersive_portals.Global;
 import com.qouteall.immersive_portals.Helper;
 import com.qouteall.immersive_portals.ModMain;
-import com.qouteall.immersive_portals.ducks.IEBuiltChunk;
 import com.qouteall.immersive_portals.my_util.ObjectBuffer;
+import com.qouteall.immersive_portals.my_util.PresetCache;
 import com.qouteall.immersive_portals.optifine_compatibility.OFBuiltChunkNeighborFix;
 import com.qouteall.immersive_portals.render.context_management.PortalRendering;
 import net.minecraft.client.MinecraftClient;
@@ -19,29 +19,32 @@ import net.minecraft.world.World;
 import org.apache.commons.lang3.Validate;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.function.Consumer;
 
 public class MyBuiltChunkStorage extends BuiltChunkStorage {
     
     
-    public static class Preset {
-        public ChunkBuilder.BuiltChunk[] data;
-        public long lastActiveTime;
+    public static class Preset extends PresetCache.Preset<ChunkBuilder.BuiltChunk> {
         public boolean isNeighborUpdated;
         
         public Preset(ChunkBuilder.BuiltChunk[] data, boolean isNeighborUpdated) {
-            this.data = data;
+            super(data);
             this.isNeighborUpdated = isNeighborUpdated;
         }
     }
     
+    // the eviction policy is in PresetCache
+    private static final int maxPresetNum = 16;
+    private static final long builtChunkMemoryBudget = 256L * 1024 * 1024;
+    // a rough average, most built chunks are empty or have small buffers
+    private static final long estimatedBytesPerBuiltChunk = 16 * 1024;
+    private static final long presetKeepTime = Helper.secondToNano(1);
+    private static final long presetExpireTime = Helper.secondToNano(20);
+    
     private ChunkBuilder factory;
-    private Map<BlockPos, ChunkBuilder.BuiltChunk> builtChunkMap = new HashMap<>();
-    private Map<ChunkPos, Preset> presets = new HashMap<>();
+    // the built chunks are keyed by BlockPos.asLong of the base pos
+    // the presets are keyed by ChunkPos.toLong of the camera chunk
+    private PresetCache<ChunkBuilder.BuiltChunk, Preset> presetCache;
     private boolean shouldUpdateMainPresetNeighbor = true;
     private ObjectBuffer<ChunkBuilder.BuiltChunk> builtChunkBuffer;
     
@@ -69,6 +72,24 @@ public class MyBuiltChunkStorage extends BuiltChunkStorage {
             ChunkBuilder.BuiltChunk::delete
         );
         
+        presetCache = new PresetCache<>(
+            maxPresetNum,
+            builtChunkMemoryBudget,
+            estimatedBytesPerBuiltChunk,
+            presetKeepTime,
+            presetExpireTime,
+            key -> {
+                ChunkBuilder.BuiltChunk builtChunk = builtChunkBuffer.takeObject();
+                builtChunk.setOrigin(
+                    BlockPos.unpackLongX(key), BlockPos.unpackLongY(key), BlockPos.unpackLongZ(key)
+                );
+                return builtChunk;
+            },
+            builtChunkBuffer::returnObject,
+            builtChunk -> builtChunk.getOrigin().asLong(),
+            System::nanoTime
+        );
+        
         ModMain.preRenderSignal.connectWithWeakRef(this, (this_) -> {
             MinecraftClient.getInstance().getProfiler().push("reserve");
             this_.builtChunkBuffer.reserveObjects(sizeX * sizeY * sizeZ / 100);
@@ -86,8 +107,7 @@ public class MyBuiltChunkStorage extends BuiltChunkStorage {
         getAllActiveBuiltChunks().forEach(
             ChunkBuilder.BuiltChunk::delete
         );
-        builtChunkMap.clear();
-        presets.clear();
+        presetCache.clear();
         builtChunkBuffer.destroyAll();
     }
     
@@ -95,16 +115,14 @@ public class MyBuiltChunkStorage extends BuiltChunkStorage {
     public void updateCameraPosition(double playerX, double playerZ) {
         MinecraftClient.getInstance().getProfiler().push("built_chunk_storage");
         
-        ChunkPos cameraChunkPos = new ChunkPos(
+        long cameraChunkPos = ChunkPos.toLong(
             MathHelper.floorDiv((int) playerX, 16),
             MathHelper.floorDiv((int) playerZ, 16)
         );
         
-        Preset preset = presets.computeIfAbsent(
-            cameraChunkPos,
-            whatever -> myCreatePreset(playerX, playerZ)
+        Preset preset = presetCache.getPreset(
+            cameraChunkPos, () -> myCreatePreset(playerX, playerZ)
         );
-        preset.lastActiveTime = System.nanoTime();
         
         this.chunks = preset.data;
         
@@ -167,9 +185,10 @@ public class MyBuiltChunkStorage extends BuiltChunkStorage {
                     Validate.isTrue(px % 16 == 0);
                     Validate.isTrue(py % 16 == 0);
                     Validate.isTrue(pz % 16 == 0);
-                    chunks[index] = provideBuiltChunk(
+                    ChunkBuilder.BuiltChunk builtChunk = provideBuiltChunk(
                         new BlockPos(px, py, pz)
                     );
+                    chunks[index] = builtChunk;
                 }
             }
         }
@@ -202,65 +221,25 @@ public class MyBuiltChunkStorage extends BuiltChunkStorage {
             return null;
         }
         
-        return builtChunkMap.computeIfAbsent(
-            basePos.toImmutable(),
-            whatever -> {
-                ChunkBuilder.BuiltChunk builtChunk = builtChunkBuffer.takeObject();
-                
-                builtChunk.setOrigin(
-                    basePos.getX(), basePos.getY(), basePos.getZ()
-                );
-                
-                return builtChunk;
-            }
-        );
+        return presetCache.provideChunk(basePos.asLong());
     }
     
     private void tick() {
         ClientWorld worldClient = MinecraftClient.getInstance().world;
         if (worldClient != null) {
+            // evict at most one preset per tick
+            presetCache.evictOnePreset();
+            
             if (worldClient.getTime() % 213 == 66) {
-                purge();
+                MinecraftClient.getInstance().getProfiler().push("my_built_chunk_storage_purge");
+                presetCache.purge();
+                MinecraftClient.getInstance().getProfiler().pop();
             }
         }
     }
     
-    private void purge() {
-        MinecraftClient.getInstance().getProfiler().push("my_built_chunk_storage_purge");
-        
-        long currentTime = System.nanoTime();
-        presets.entrySet().removeIf(entry -> {
-            Preset preset = entry.getValue();
-            if (preset.data == this.chunks) {
-                return false;
-            }
-            return currentTime - preset.lastActiveTime > Helper.secondToNano(20);
-        });
-        
-        foreachActiveBuiltChunks(builtChunk -> {
-            ((IEBuiltChunk) builtChunk).setMark(currentTime);
-        });
-        
-        builtChunkMap.entrySet().removeIf(entry -> {
-            ChunkBuilder.BuiltChunk chunk = entry.getValue();
-            if (((IEBuiltChunk) chunk).getMark() != currentTime) {
-                builtChunkBuffer.returnObject(chunk);
-                return true;
-            }
-            else {
-                return false;
-            }
-        });
-        
-        MinecraftClient.getInstance().getProfiler().pop();
-    }
-    
     private Set<ChunkBuilder.BuiltChunk> getAllActiveBuiltChunks() {
-        HashSet<ChunkBuilder.BuiltChunk> result = new HashSet<>();
-        
-        presets.forEach((key, preset) -> {
-            result.addAll(Arrays.asList(preset.data));
-        });
+        Set<ChunkBuilder.BuiltChunk> result = presetCache.getChunksInPresets();
         
         if (chunks != null) {
             result.addAll(Arrays.asList(chunks));
@@ -269,22 +248,8 @@ public class MyBuiltChunkStorage extends BuiltChunkStorage {
         return result;
     }
     
-    private void foreachActiveBuiltChunks(Consumer<ChunkBuilder.BuiltChunk> func) {
-        if (chunks != null) {
-            for (ChunkBuilder.BuiltChunk chunk : chunks) {
-                func.accept(chunk);
-            }
-        }
-        
-        for (Preset value : presets.values()) {
-            for (ChunkBuilder.BuiltChunk chunk : value.data) {
-                func.accept(chunk);
-            }
-        }
-    }
-    
     public int getManagedChunkNum() {
-        return builtChunkMap.size();
+        return presetCache.getChunkNum();
     }
     
     public ChunkBuilder.BuiltChunk myGetRenderChunkRaw(
@@ -305,12 +270,17 @@ public class MyBuiltChunkStorage extends BuiltChunkStorage {
     
     public String getDebugString() {
         return String.format(
-            "All:%s Needs Rebuild:%s",
-            builtChunkMap.size(),
-            builtChunkMap.values().stream()
+            "All:%s Needs Rebuild:%s Presets:%s Hit:%s Miss:%s Evicted:%s Estimated:%sMB",
+            presetCache.getChunkNum(),
+            presetCache.getChunks().stream()
                 .filter(
                     builtChunk -> builtChunk.needsRebuild()
-                ).count()
+                ).count(),
+            presetCache.getPresetNum(),
+            presetCache.getHitNum(),
+            presetCache.getMissNum(),
+            presetCache.getEvictionNum(),
+            presetCache.getEstimatedBytes() / 1024 / 1024
         );
     }
     
@@ -0,0 +1,146 @@
+package com.qouteall.immersive_portals.render;
+
+import com.qouteall.immersive_portals.portal.Portal;
+import net.minecraft.util.math.Box;
+import net.minecraft.util.math.Vec3d;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Decides which portals to render in one layer and in which order.
+// It does not touch GL or the render states, the renderer gives it everything it needs.
+// The nested layers are planned when rendering the portal content
+// because the inner layers are in another world with another camera.
+public class PortalRenderPlanner {
+    // the content is not clipped exactly at the destination plane
+    // see FrontClipping.getClipEquationInner
+    private static final double clippingCompensationRatio = 1.0 / 150;
+    private static final double clippingMargin = 0.1;
+    
+    public static class Node {
+        public final Portal portal;
+        public final double distance;
+        // roughly the solid angle that the portal occupies
+        public final double cost;
+        
+        public Node(Portal portal, double distance, double cost) {
+            this.portal = portal;
+            this.distance = distance;
+            this.cost = cost;
+        }
+    }
+    
+    public static class Plan {
+        public final List<Node> nodes;
+        public final double totalCost;
+        
+        public Plan(List<Node> nodes, double totalCost) {
+            this.nodes = nodes;
+            this.totalCost = totalCost;
+        }
+    }
+    
+    private final Vec3d cameraPos;
+    @Nullable
+    private final Portal outerPortal;
+    @Nullable
+    private final Predicate<Box> frustumTest;
+    private final double renderRange;
+    private final boolean cullByOuterClipping;
+    
+    /**
+     * @param outerPortal  the portal whose content is being rendered, null in the outer world
+     * @param frustumTest  tests whether a box is in the view frustum, null to not do frustum culling
+     */
+    public PortalRenderPlanner(
+        Vec3d cameraPos,
+        @Nullable Portal outerPortal,
+        @Nullable Predicate<Box> frustumTest,
+        double renderRange,
+        boolean cullByOuterClipping
+    ) {
+        this.cameraPos = cameraPos;
+        this.outerPortal = outerPortal;
+        this.frustumTest = frustumTest;
+        this.renderRange = renderRange;
+        this.cullByOuterClipping = cullByOuterClipping;
+    }
+    
+    public Plan plan(Iterable<? extends Portal> candidates) {
+        ArrayList<Node> nodes = new ArrayList<>();
+        double totalCost = 0;
+        
+        for (Portal portal : candidates) {
+            if (!portal.isPortalValid()) {
+                continue;
+            }
+            
+            // back facing
+            if (!portal.isInFrontOfPortal(cameraPos)) {
+                continue;
+            }
+            
+            // the same portal seen again through a mirror pair
+            if (outerPortal != null && Portal.isParallelOrientedPortal(portal, outerPortal)) {
+                continue;
+            }
+            
+            double distance = portal.getDistanceToNearestPointInPortal(cameraPos);
+            if (distance > renderRange) {
+                continue;
+            }
+            
+            Box box = portal.getExactBoundingBox();
+            
+            if (outerPortal != null && cullByOuterClipping && isClippedByOuterPortal(box)) {
+                continue;
+            }
+            
+            if (frustumTest != null && !frustumTest.test(box)) {
+                continue;
+            }
+            
+            double cost = estimateCost(portal, distance);
+            totalCost += cost;
+            nodes.add(new Node(portal, distance, cost));
+        }
+        
+        nodes.sort(Comparator.comparingDouble(node -> node.distance));
+        
+        return new Plan(nodes, totalCost);
+    }
+    
+    // the content of the outer portal behind its destination plane is clipped
+    // so a portal totally behind it will not be seen
+    private boolean isClippedByOuterPortal(Box box) {
+        Vec3d planeNormal = outerPortal.getContentDirection();
+        Vec3d planePos = outerPortal.destination;
+        
+        double compensation = Math.max(
+            0,
+            planePos.subtract(cameraPos).dotProduct(planeNormal) * clippingCompensationRatio
+        );
+        double threshold = -compensation - clippingMargin;
+        
+        // the box corner that is the farthest along the plane normal
+        double x = planeNormal.x > 0 ? box.maxX : box.minX;
+        double y = planeNormal.y > 0 ? box.maxY : box.minY;
+        double z = planeNormal.z > 0 ? box.maxZ : box.minZ;
+        
+        double signedDistance = (x - planePos.x) * planeNormal.x +
+            (y - planePos.y) * planeNormal.y +
+            (z - planePos.z) * planeNormal.z;
+        
+        return signedDistance < threshold;
+    }
+    
+    private double estimateCost(Portal portal, double distance) {
+        double area = portal.width * portal.height;
+        double cost = area / Math.max(distance * distance, 1);
+        // it covers at most the whole screen
+        return Math.min(cost, 1);
+    }
+}
@@ -7,7 +7,6 @@ import com.qouteall.immersive_portals.Helper;
 import com.qouteall.immersive_portals.McHelper;
 import com.qouteall.immersive_portals.portal.Mirror;
 import com.qouteall.immersive_portals.portal.Portal;
-import com.qouteall.immersive_portals.portal.global_portals.GlobalTrackedPortal;
 import com.qouteall.immersive_portals.render.context_management.PortalRendering;
 import com.qouteall.immersive_portals.render.context_management.RenderInfo;
 import com.qouteall.immersive_portals.render.context_management.RenderStates;
@@ -24,7 +23,6 @@ import org.apache.commons.lang3.Validate;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.function.Supplier;
 
@@ -70,68 +68,31 @@ public abstract class PortalRenderer {
             return frustum;
         });
         
-        double renderRange = getRenderRange();
-        
-        List<Portal> portalsToRender = new ArrayList<>();
-        List<GlobalTrackedPortal> globalPortals = McHelper.getGlobalPortals(client.world);
-        for (GlobalTrackedPortal globalPortal : globalPortals) {
-            if (!shouldSkipRenderingPortal(globalPortal, frustumSupplier)) {
-                portalsToRender.add(globalPortal);
-            }
+        if (RenderStates.getRenderedPortalNum() >= Global.portalRenderLimit) {
+            return;
         }
         
+        List<Portal> candidates = new ArrayList<>(McHelper.getGlobalPortals(client.world));
         client.world.getEntities().forEach(e -> {
             if (e instanceof Portal) {
-                Portal portal = (Portal) e;
-                if (!shouldSkipRenderingPortal(portal, frustumSupplier)) {
-                    portalsToRender.add(portal);
-                }
+                candidates.add((Portal) e);
             }
         });
         
-        Vec3d cameraPos = McHelper.getCurrentCameraPos();
-        portalsToRender.sort(Comparator.comparingDouble(portalEntity ->
-            portalEntity.getDistanceToNearestPointInPortal(cameraPos)
-        ));
-        
-        for (Portal portal : portalsToRender) {
-            doRenderPortal(portal, matrixStack);
-        }
-    }
-    
-    private boolean shouldSkipRenderingPortal(Portal portal, Supplier<Frustum> frustumSupplier) {
-        if (!portal.isPortalValid()) {
-            return true;
-        }
-        
-        if (RenderStates.getRenderedPortalNum() >= Global.portalRenderLimit) {
-            return true;
-        }
-        
-        Vec3d cameraPos = McHelper.getCurrentCameraPos();
+        PortalRenderPlanner planner = new PortalRenderPlanner(
+            McHelper.getCurrentCameraPos(),
+            PortalRendering.isRendering() ? PortalRendering.getRenderingPortal() : null,
+            CGlobal.earlyFrustumCullingPortal ? box -> frustumSupplier.get().isVisible(box) : null,
+            getRenderRange(),
+            CGlobal.useFrontCulling
+        );
         
-        if (!portal.isInFrontOfPortal(cameraPos)) {
-            return true;
-        }
+        PortalRenderPlanner.Plan plan = planner.plan(candidates);
+        RenderStates.portalPlanCost += plan.totalCost;
         
-        if (PortalRendering.isRendering()) {
-            Portal outerPortal = PortalRendering.getRenderingPortal();
-            if (Portal.isParallelOrientedPortal(portal, outerPortal)) {
-                return true;
-            }
+        for (PortalRenderPlanner.Node node : plan.nodes) {
+            doRenderPortal(node.portal, matrixStack);
         }
-        
-        if (isOutOfDistance(portal)) {
-            return true;
-        }
-        
-        if (CGlobal.earlyFrustumCullingPortal) {
-            Frustum frustum = frustumSupplier.get();
-            if (!frustum.isVisible(portal.getExactBoundingBox())) {
-                return true;
-            }
-        }
-        return false;
     }
     
     protected final double getRenderRange() {
@@ -211,16 +172,6 @@ public abstract class PortalRenderer {
         );
     }
     
-    private boolean isOutOfDistance(Portal portal) {
-        
-        Vec3d cameraPos = McHelper.getCurrentCameraPos();
-        if (portal.getDistanceToNearestPointInPortal(cameraPos) > getRenderRange()) {
-            return true;
-        }
-        
-        return false;
-    }
-    
     // Scaling does not interfere camera transformation
     @Nullable
     public static Matrix4f getAdditionalCameraTransformation(Portal portal) {
@@ -89,11 +89,12 @@ public class PortalRendering {
     }
     
     public static Vec3d getRenderingCameraPos() {
-        Vec3d pos = RenderStates.originalCamera.getPos();
+        Vec3d originalPos = RenderStates.originalCamera.getPos();
+        double[] pos = {originalPos.x, originalPos.y, originalPos.z};
         for (Portal portal : portalLayers) {
-            pos = portal.transformPoint(pos);
+            portal.getTransform().transformPoint(pos);
         }
-        return pos;
+        return new Vec3d(pos[0], pos[1], pos[2]);
     }
     
     public static double getAllScaling() {
@@ -60,6 +60,10 @@ public class RenderStates {
     
     public static String debugText;
     
+    // the sum of the planned portal costs of all layers, see PortalRenderPlanner
+    public static double portalPlanCost = 0;
+    public static double lastPortalPlanCost = 0;
+    
     public static boolean isLaggy = false;
     
     public static boolean isRenderingEntities = false;
@@ -86,6 +90,8 @@ public class RenderStates {
         renderedDimensions.clear();
         lastPortalRenderInfos = portalRenderInfos;
         portalRenderInfos = new ArrayList<>();
+        lastPortalPlanCost = portalPlanCost;
+        portalPlanCost = 0;
         
         FogRendererContext.update();
         
@@ -413,17 +413,7 @@ public class ClientTeleportationManager {
     }
     
     private static void tickAfterTeleportation(ClientPlayerEntity player, Vec3d newEyePos, Vec3d newLastTickEyePos) {
-        // update collidingPortal
-        McHelper.findEntitiesByBox(
-            Portal.class,
-            player.world,
-            player.getBoundingBox(),
-            10,
-            portal -> true
-        ).forEach(CollisionHelper::notifyCollidingPortals);
-        
-        CollisionHelper.updateClientGlobalPortalCollidingPortal();
-        
+        // collidingPortal is updated when ticking
         player.tick();
         McHelper.setEyePos(player, newEyePos, newLastTickEyePos);
         McHelper.updateBoundingBox(player);
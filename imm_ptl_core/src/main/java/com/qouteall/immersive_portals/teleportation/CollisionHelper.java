@@ -1,18 +1,13 @@
 package com.qouteall.immersive_portals.teleportation;
 
-import com.qouteall.immersive_portals.CGlobal;
 import com.qouteall.immersive_portals.CHelper;
 import com.qouteall.immersive_portals.Helper;
 import com.qouteall.immersive_portals.McHelper;
-import com.qouteall.immersive_portals.ModMain;
 import com.qouteall.immersive_portals.ducks.IEEntity;
 import com.qouteall.immersive_portals.portal.Portal;
+import com.qouteall.immersive_portals.portal.PortalSpatialIndex;
 import com.qouteall.immersive_portals.portal.global_portals.GlobalTrackedPortal;
-import net.fabricmc.api.EnvType;
-import net.fabricmc.api.Environment;
-import net.minecraft.client.world.ClientWorld;
 import net.minecraft.entity.Entity;
-import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.math.Box;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.registry.RegistryKey;
@@ -234,12 +229,8 @@ public class CollisionHelper {
         
         List<GlobalTrackedPortal> globalPortals = McHelper.getGlobalPortals(world);
         
-        List<Portal> collidingNormalPortals = McHelper.getEntitiesRegardingLargeEntities(
-            world,
-            box,
-            10,
-            Portal.class,
-            p -> true
+        List<Portal> collidingNormalPortals = PortalSpatialIndex.get(world).getPortalsInBox(
+            Portal.class, box, p -> true
         );
         
         if (globalPortals.isEmpty()) {
@@ -255,6 +246,45 @@ public class CollisionHelper {
         );
     }
     
+    /**
+     * Called when the entity ticks
+     * {@link com.qouteall.immersive_portals.mixin.common.collision.MixinEntity}
+     */
+    public static void notifyCollidingPortals(Entity entity) {
+        if (entity instanceof Portal) {
+            return;
+        }
+        
+        World world = entity.world;
+        List<GlobalTrackedPortal> globalPortals = McHelper.getGlobalPortals(world);
+        PortalSpatialIndex index = PortalSpatialIndex.get(world);
+        boolean hasNormalPortals = index.getPortalNum() != 0;
+        if (!hasNormalPortals && globalPortals.isEmpty()) {
+            return;
+        }
+        
+        Box sweptBox = entity.getBoundingBox().stretch(entity.getVelocity());
+        
+        if (hasNormalPortals) {
+            List<Portal> portals = index.getPortalsInBox(
+                Portal.class, sweptBox, Portal::isInteractable
+            );
+            for (Portal portal : portals) {
+                if (canCollideWithPortal(entity, portal, 1)) {
+                    ((IEEntity) entity).notifyCollidingWithPortal(portal);
+                }
+            }
+        }
+        
+        for (GlobalTrackedPortal globalPortal : globalPortals) {
+            if (globalPortal.getBoundingBox().intersects(sweptBox)) {
+                if (canCollideWithPortal(entity, globalPortal, 1)) {
+                    ((IEEntity) entity).notifyCollidingWithPortal(globalPortal);
+                }
+            }
+        }
+    }
+    
     public static boolean isCollidingWithAnyPortal(Entity entity) {
         return ((IEEntity) entity).getCollidingPortal() != null;
     }
@@ -285,84 +315,4 @@ public class CollisionHelper {
             return entity.getBoundingBox();
         }
     }
-    
-    private static void updateGlobalPortalCollidingPortalForWorld(World world) {
-        world.getProfiler().push("global_portal_colliding_portal");
-        
-        List<GlobalTrackedPortal> globalPortals = McHelper.getGlobalPortals(world);
-        Iterable<Entity> worldEntityList = McHelper.getWorldEntityList(world);
-        
-        for (GlobalTrackedPortal globalPortal : globalPortals) {
-            Box globalPortalBoundingBox = globalPortal.getBoundingBox();
-            for (Entity entity : worldEntityList) {
-                if (entity.getBoundingBox().intersects(globalPortalBoundingBox)) {
-                    if (canCollideWithPortal(entity, globalPortal, 1)) {
-                        ((IEEntity) entity).notifyCollidingWithPortal(globalPortal);
-                    }
-                }
-            }
-        }
-        
-        world.getProfiler().pop();
-    }
-    
-    public static void init() {
-        ModMain.postServerTickSignal.connect(() -> {
-            for (ServerWorld world : McHelper.getServer().getWorlds()) {
-                updateGlobalPortalCollidingPortalForWorld(world);
-            }
-        });
-    }
-    
-    @Environment(EnvType.CLIENT)
-    public static void initClient() {
-        ModMain.postClientTickSignal.connect(CollisionHelper::updateClientGlobalPortalCollidingPortal);
-    }
-    
-    @Environment(EnvType.CLIENT)
-    public static void updateClientGlobalPortalCollidingPortal() {
-        for (ClientWorld world : CGlobal.clientWorldLoader.clientWorldMap.values()) {
-            updateGlobalPortalCollidingPortalForWorld(world);
-        }
-    }
-    
-    public static void notifyCollidingPortals(Portal portal) {
-        if (!portal.isInteractable()) {
-            return;
-        }
-        
-        Box portalBoundingBox = portal.getBoundingBox();
-        final double compensation = 3;
-        int xMin = (int) Math.floor(portalBoundingBox.minX - compensation);
-        int yMin = (int) Math.floor(portalBoundingBox.minY - compensation);
-        int zMin = (int) Math.floor(portalBoundingBox.minZ - compensation);
-        int xMax = (int) Math.ceil(portalBoundingBox.maxX + compensation);
-        int yMax = (int) Math.ceil(portalBoundingBox.maxY + compensation);
-        int zMax = (int) Math.ceil(portalBoundingBox.maxZ + compensation);
-        
-        List<Entity> collidingEntities = McHelper.findEntities(
-            Entity.class,
-            McHelper.getChunkAccessor(portal.world),
-            xMin >> 4,
-            xMax >> 4,
-            Math.max(0, yMin >> 4),
-            Math.min(15, yMax >> 4),
-            zMin >> 4,
-            zMax >> 4,
-            entity -> {
-                if (entity instanceof Portal) {
-                    return false;
-                }
-                Box entityBoxStretched = entity.getBoundingBox().stretch(entity.getVelocity());
-                if (!entityBoxStretched.intersects(portalBoundingBox)) {
-                    return false;
-                }
-                return canCollideWithPortal(entity, portal, 1);
-            }
-        );
-        
-        for (Entity entity : collidingEntities) {
-            ((IEEntity) entity).notifyCollidingWithPortal(portal);
-        }
-    }
 }
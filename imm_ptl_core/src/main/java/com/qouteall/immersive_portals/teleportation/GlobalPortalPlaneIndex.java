@@ -0,0 +1,127 @@
+package com.qouteall.immersive_portals.teleportation;
+
+import com.qouteall.immersive_portals.portal.Portal;
+import com.qouteall.immersive_portals.portal.global_portals.GlobalTrackedPortal;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Broad phase for testing entities against global portals
+// The portals with the same normal are grouped into a slab sorted by plane offset.
+// An entity can only cross a portal if its plane offset is between
+// the entity's last position and current position projected onto the normal,
+// so only the portals found by binary search get the exact test.
+public class GlobalPortalPlaneIndex {
+    // the exact test computes the distance in a different order
+    // so the range is slightly enlarged to not miss the portals on the boundary
+    private static final double epsilon = 1.0E-6;
+    
+    private static class Slab {
+        public final Vec3d normal;
+        public double[] offsets;
+        public int[] portalIndices;
+        
+        public Slab(Vec3d normal) {
+            this.normal = normal;
+        }
+    }
+    
+    private final List<GlobalTrackedPortal> portals;
+    private final ArrayList<Slab> slabs = new ArrayList<>();
+    
+    public GlobalPortalPlaneIndex(List<GlobalTrackedPortal> portals) {
+        this.portals = portals;
+        
+        ArrayList<ArrayList<Integer>> groups = new ArrayList<>();
+        for (int i = 0; i < portals.size(); i++) {
+            Vec3d normal = portals.get(i).getNormal();
+            int slabIndex = findSlab(normal);
+            if (slabIndex == -1) {
+                slabs.add(new Slab(normal));
+                groups.add(new ArrayList<>());
+                slabIndex = slabs.size() - 1;
+            }
+            groups.get(slabIndex).add(i);
+        }
+        
+        for (int i = 0; i < slabs.size(); i++) {
+            Slab slab = slabs.get(i);
+            ArrayList<Integer> group = groups.get(i);
+            group.sort((a, b) -> Double.compare(getOffset(slab.normal, a), getOffset(slab.normal, b)));
+            slab.offsets = new double[group.size()];
+            slab.portalIndices = new int[group.size()];
+            for (int j = 0; j < group.size(); j++) {
+                slab.portalIndices[j] = group.get(j);
+                slab.offsets[j] = getOffset(slab.normal, group.get(j));
+            }
+        }
+    }
+    
+    private int findSlab(Vec3d normal) {
+        for (int i = 0; i < slabs.size(); i++) {
+            if (slabs.get(i).normal.equals(normal)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private double getOffset(Vec3d normal, int portalIndex) {
+        return portals.get(portalIndex).getPos().dotProduct(normal);
+    }
+    
+    /**
+     * Returns the first portal in the list that the movement goes through.
+     * Equivalent to testing every portal by {@link Portal#isMovedThroughPortal(Vec3d, Vec3d)}
+     */
+    public GlobalTrackedPortal findCrossedPortal(
+        Vec3d lastPos, Vec3d pos,
+        Predicate<GlobalTrackedPortal> predicate
+    ) {
+        int result = Integer.MAX_VALUE;
+        
+        for (Slab slab : slabs) {
+            double lastOffset = lastPos.dotProduct(slab.normal);
+            double offset = pos.dotProduct(slab.normal);
+            // it needs to be in front of the portal last tick and behind it now
+            if (!(lastOffset + epsilon > offset)) {
+                continue;
+            }
+            
+            int begin = upperBound(slab.offsets, offset - epsilon);
+            for (int i = begin; i < slab.offsets.length; i++) {
+                if (slab.offsets[i] >= lastOffset + epsilon) {
+                    break;
+                }
+                int portalIndex = slab.portalIndices[i];
+                if (portalIndex >= result) {
+                    continue;
+                }
+                GlobalTrackedPortal portal = portals.get(portalIndex);
+                if (predicate.test(portal) && portal.isMovedThroughPortal(lastPos, pos)) {
+                    result = portalIndex;
+                }
+            }
+        }
+        
+        if (result == Integer.MAX_VALUE) {
+            return null;
+        }
+        return portals.get(result);
+    }
+    
+    // the index of the first element that's greater than the value
+    private static int upperBound(double[] arr, double value) {
+        int index = Arrays.binarySearch(arr, value);
+        if (index < 0) {
+            return -index - 1;
+        }
+        while (index < arr.length && arr[index] <= value) {
+            index++;
+        }
+        return index;
+    }
+}
@@ -6,11 +6,14 @@ import com.qouteall.immersive_portals.Helper;
 import com.qouteall.immersive_portals.McHelper;
 import com.qouteall.immersive_portals.ModMain;
 import com.qouteall.immersive_portals.PehkuiInterface;
+import com.qouteall.immersive_portals.chunk_loading.EntitySync;
 import com.qouteall.immersive_portals.chunk_loading.NewChunkTrackingGraph;
 import com.qouteall.immersive_portals.ducks.IEServerPlayNetworkHandler;
 import com.qouteall.immersive_portals.ducks.IEServerPlayerEntity;
 import com.qouteall.immersive_portals.portal.Portal;
 import com.qouteall.immersive_portals.portal.global_portals.GlobalPortalStorage;
+import com.qouteall.immersive_portals.portal.global_portals.GlobalTrackedPortal;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.network.Packet;
@@ -24,8 +27,11 @@ import net.minecraft.world.World;
 import org.apache.commons.lang3.Validate;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.WeakHashMap;
@@ -39,6 +45,9 @@ public class ServerTeleportationManager {
     public final WeakHashMap<ServerPlayerEntity, Pair<RegistryKey<World>, Vec3d>> lastPosition =
         new WeakHashMap<>();
     
+    // the regular entities are teleported together after ticking
+    private final LinkedHashMap<Entity, Portal> pendingTeleports = new LinkedHashMap<>();
+    
     // The old teleport way does not recreate the entity
     // It's problematic because some AI-related fields contain world reference
     private static final boolean useOldTeleport = false;
@@ -86,10 +95,43 @@ public class ServerTeleportationManager {
         if (motion > 20) {
             return;
         }
-        ModMain.serverTaskList.addTask(() -> {
-            teleportRegularEntity(entity, portal);
-            return true;
+        pendingTeleports.putIfAbsent(entity, portal);
+    }
+    
+    /**
+     * The teleportations are grouped by the source and destination dimension.
+     * In each group the redirected packets are batched so that every player receives
+     * the spawn packets of the teleported entities in one packet.
+     */
+    private void processPendingTeleports() {
+        if (pendingTeleports.isEmpty()) {
+            return;
+        }
+        
+        McHelper.getServer().getProfiler().push("teleport_regular_entities");
+        
+        Map<World, Map<RegistryKey<World>, List<Entity>>> groups = new LinkedHashMap<>();
+        pendingTeleports.forEach((entity, portal) -> {
+            groups.computeIfAbsent(portal.world, k -> new LinkedHashMap<>())
+                .computeIfAbsent(portal.dimensionTo, k -> new ArrayList<>())
+                .add(entity);
         });
+        
+        // the map may be modified when teleporting
+        LinkedHashMap<Entity, Portal> teleports = new LinkedHashMap<>(pendingTeleports);
+        pendingTeleports.clear();
+        
+        groups.forEach((fromWorld, groupsOfWorld) -> {
+            groupsOfWorld.forEach((toDimension, entities) -> {
+                EntitySync.withBatchedRedirect(toDimension, () -> {
+                    for (Entity entity : entities) {
+                        teleportRegularEntity(entity, teleports.get(entity));
+                    }
+                });
+            });
+        });
+        
+        McHelper.getServer().getProfiler().pop();
     }
     
     private static Stream<Entity> getEntitiesToTeleport(Portal portal) {
@@ -336,25 +378,45 @@ public class ServerTeleportationManager {
                 updateForPlayer(tickTimeNow, player);
             }
         }
-        copiedPlayerList.forEach(player -> {
+        
+        McHelper.getServer().getProfiler().push("global_portal_teleport");
+        
+        // the entities near multiple players are tested once
+        Map<ServerWorld, Set<Entity>> candidates = new HashMap<>();
+        for (ServerPlayerEntity player : copiedPlayerList) {
+            ServerWorld world = (ServerWorld) player.world;
+            if (McHelper.getGlobalPortals(world).isEmpty()) {
+                continue;
+            }
+            Set<Entity> candidatesOfWorld =
+                candidates.computeIfAbsent(world, k -> new ReferenceOpenHashSet<>());
             McHelper.getServerEntitiesNearbyWithoutLoadingChunk(
-                player.world,
+                world,
                 player.getPos(),
                 Entity.class,
                 32
             ).filter(
                 entity -> !(entity instanceof ServerPlayerEntity)
-            ).forEach(entity -> {
-                McHelper.getGlobalPortals(entity.world).stream()
-                    .filter(
-                        globalPortal -> shouldEntityTeleport(globalPortal, entity)
-                    )
-                    .findFirst()
-                    .ifPresent(
-                        globalPortal -> tryToTeleportRegularEntity(globalPortal, entity)
-                    );
-            });
+            ).forEach(candidatesOfWorld::add);
+        }
+        
+        candidates.forEach((world, entities) -> {
+            GlobalPortalPlaneIndex index = GlobalPortalStorage.get(world).getPlaneIndex();
+            for (Entity entity : entities) {
+                GlobalTrackedPortal globalPortal = index.findCrossedPortal(
+                    entity.getCameraPosVec(0),
+                    entity.getCameraPosVec(1).add(entity.getVelocity()),
+                    portal -> entity.world == portal.world && portal.canTeleportEntity(entity)
+                );
+                if (globalPortal != null) {
+                    tryToTeleportRegularEntity(globalPortal, entity);
+                }
+            }
         });
+        
+        McHelper.getServer().getProfiler().pop();
+        
+        processPendingTeleports();
     }
     
     private void updateForPlayer(long tickTimeNow, ServerPlayerEntity player) {
@@ -129,20 +129,24 @@ public class ErrorTerrainGenerator extends ChunkGenerator {
             cache.get(new ChunkPos(regionX, regionZ))
         );
         
-        for (int sectionY = 0; sectionY < 16; sectionY++) {
+        BlockState[] sectionBlocks = new BlockState[16 * 16 * 16];
+        
+        // the sections above max y are all air
+        for (int sectionY = 0; sectionY < maxY / 16; sectionY++) {
+            generator.getSectionComposition(
+                pos.x * 16, pos.z * 16, sectionY, sectionBlocks
+            );
+            
             ChunkSection section = protoChunk.getSection(sectionY);
             section.lock();
             
             for (int localX = 0; localX < 16; localX++) {
                 for (int localY = 0; localY < 16; localY++) {
                     for (int localZ = 0; localZ < 16; localZ++) {
-                        int worldX = pos.x * 16 + localX;
                         int worldY = sectionY * 16 + localY;
-                        int worldZ = pos.z * 16 + localZ;
                         
-                        BlockState currBlockState = generator.getBlockComposition(
-                            worldX, worldY, worldZ
-                        );
+                        BlockState currBlockState =
+                            sectionBlocks[(localY << 8) | (localZ << 4) | localX];
                         
                         if (currBlockState != air) {
                             section.setBlockState(localX, localY, localZ, currBlockState, false);
@@ -13,6 +13,32 @@ public class FormulaGenerator {
         double eval(double x);
     }
     
+    // f(x, y, z) = base(a(x), b(y), c(z))
+    // the inner functions can be evaluated separately for each axis
+    public static class SeparableTriFunction implements TriNumFunction {
+        public final TriNumFunction base;
+        public final UniNumFunction a;
+        public final UniNumFunction b;
+        public final UniNumFunction c;
+        
+        public SeparableTriFunction(
+            TriNumFunction base,
+            UniNumFunction a,
+            UniNumFunction b,
+            UniNumFunction c
+        ) {
+            this.base = base;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+        
+        @Override
+        public double eval(double x, double y, double z) {
+            return base.eval(a.eval(x), b.eval(y), c.eval(z));
+        }
+    }
+    
     private static RandomSelector<Function<Random, UniNumFunction>> uniFuncSelector;
     private static RandomSelector<TriNumFunction> triFuncSelector;
     
@@ -299,10 +325,10 @@ public class FormulaGenerator {
         );
     }
     
-    public static TriNumFunction getRandomTriCompositeExpression(
+    public static SeparableTriFunction getRandomTriCompositeExpression(
         Random random
     ) {
-        return nestExpression(
+        return new SeparableTriFunction(
             triFuncSelector.select(random),
             getComplexUniExpression(random, 2),
             getComplexUniExpression(random, 2),
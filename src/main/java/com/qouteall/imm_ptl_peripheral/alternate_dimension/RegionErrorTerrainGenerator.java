@@ -21,11 +21,13 @@ class RegionErrorTerrainGenerator {
     
     private int regionX;
     private int regionZ;
-    private FormulaGenerator.TriNumFunction expression;
+    private FormulaGenerator.SeparableTriFunction expression;
     private double middle;
     private double upMiddle;
     private double downMiddle;
     Composition composition;
+    // the values of the inner y function for every world y below max y
+    private double[] yArgs;
     
     public RegionErrorTerrainGenerator(
         int regionX_,
@@ -40,6 +42,11 @@ class RegionErrorTerrainGenerator {
         middle = calcMiddle(0.4, 0.5);
         upMiddle = calcMiddle(1.0, 1.0);
         downMiddle = calcMiddle(0.0, 0);
+        
+        yArgs = new double[ErrorTerrainGenerator.maxY];
+        for (int worldY = 0; worldY < ErrorTerrainGenerator.maxY; worldY++) {
+            yArgs[worldY] = expression.b.eval(worldY / ((double) ErrorTerrainGenerator.maxY));
+        }
     }
     
     private void initExpression(long seed) {
@@ -101,4 +108,51 @@ class RegionErrorTerrainGenerator {
         );
     }
     
+    /**
+     * Same as calling {@link RegionErrorTerrainGenerator#getBlockComposition(int, int, int)}
+     * for every block in the chunk section.
+     * The inner functions of each axis are evaluated once per coordinate
+     * instead of once per block.
+     * The result is indexed by (localY << 8) | (localZ << 4) | localX
+     */
+    public void getSectionComposition(
+        int chunkStartX,
+        int chunkStartZ,
+        int sectionY,
+        BlockState[] result
+    ) {
+        int a = ErrorTerrainGenerator.regionChunkNum * 16;
+        int regionStartX = regionX * a;
+        int regionStartZ = regionZ * a;
+        
+        double[] xArgs = new double[16];
+        double[] zArgs = new double[16];
+        for (int i = 0; i < 16; i++) {
+            xArgs[i] = expression.a.eval((chunkStartX + i - regionStartX) / ((double) a));
+            zArgs[i] = expression.c.eval((chunkStartZ + i - regionStartZ) / ((double) a));
+        }
+        
+        int index = 0;
+        for (int localY = 0; localY < 16; localY++) {
+            int worldY = sectionY * 16 + localY;
+            if (worldY >= ErrorTerrainGenerator.maxY) {
+                Arrays.fill(result, index, result.length, ErrorTerrainComposition.air);
+                return;
+            }
+            double yArg = yArgs[worldY];
+            
+            for (int localZ = 0; localZ < 16; localZ++) {
+                for (int localX = 0; localX < 16; localX++) {
+                    double currValue = expression.base.eval(xArgs[localX], yArg, zArgs[localZ]);
+                    result[index] = composition.generate(
+                        worldY, currValue,
+                        middle, upMiddle, downMiddle,
+                        chunkStartX + localX, chunkStartZ + localZ
+                    );
+                    index++;
+                }
+            }
+        }
+    }
+    
 }